@@ -0,0 +1,100 @@
+package source;
+
+import java.awt.image.BufferedImage;
+
+//downscales packed ARGB pixels by averaging boxes of source pixels. Every source pixel falls into exactly one box,
+//the boxes of an output row or column differ in size by at most one pixel, so the result is close to an exact
+//area average while every source pixel is read once. Images are never upscaled.
+public class AreaDownscaler {
+
+	private AreaDownscaler(){
+	}
+
+	//returns the size of an image scaled so that its larger side is at most maxDimension, as {width, height}
+	public static int[] getScaledSize(int imageWidth, int imageHeight, int maxDimension){
+
+		if(maxDimension < 1){
+			throw new IllegalArgumentException("max dimension must be positive: " + maxDimension);
+		}
+		if(imageWidth <= maxDimension && imageHeight <= maxDimension){
+			return new int[]{imageWidth, imageHeight};
+		}
+
+		double scale = (double)maxDimension / Math.max(imageWidth, imageHeight);
+		return new int[]{Math.max(1, (int)Math.round(imageWidth * scale)), Math.max(1, (int)Math.round(imageHeight * scale))};
+	}
+
+	//returns image scaled so that its larger side is at most maxDimension, or image itself if it's small enough
+	public static BufferedImage scaleToMaxDimension(BufferedImage image, int maxDimension){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		int scaledSize[] = getScaledSize(imageWidth, imageHeight, maxDimension);
+		if(scaledSize[0] == imageWidth && scaledSize[1] == imageHeight){
+			return image;
+		}
+
+		int scaledPixels[] = new int[scaledSize[0] * scaledSize[1]];
+		scale(RasterPixels.getPixels(image), imageWidth, imageHeight, scaledPixels, scaledSize[0], scaledSize[1]);
+		return RasterPixels.createImage(scaledPixels, scaledSize[0], scaledSize[1], image.getType());
+	}
+
+	//averages the pixels of an image into result, an image of scaledWidth x scaledHeight that is not larger than
+	//the image
+	public static void scale(int pixels[], int imageWidth, int imageHeight, int result[], int scaledWidth, int scaledHeight){
+
+		if(scaledWidth > imageWidth || scaledHeight > imageHeight || scaledWidth < 1 || scaledHeight < 1){
+			throw new IllegalArgumentException("cannot scale " + imageWidth + "x" + imageHeight + " to " + scaledWidth + "x" + scaledHeight);
+		}
+
+		//output column of every source column, and the number of source columns of every output column
+		int columns[] = new int[imageWidth];
+		int columnWidths[] = new int[scaledWidth];
+		for(int counterx = 0; counterx < imageWidth; counterx++){
+			columns[counterx] = (int)((long)counterx * scaledWidth / imageWidth);
+			columnWidths[columns[counterx]]++;
+		}
+
+		//channel sums of the output row, four per output column
+		long sums[] = new long[4 * scaledWidth];
+
+		int firstRow = 0;
+		for(int scaledy = 0; scaledy < scaledHeight; scaledy++){
+
+			int lastRow = (int)((long)(scaledy + 1) * imageHeight / scaledHeight);
+			for(int countery = firstRow; countery < lastRow; countery++){
+
+				int rowOffset = countery * imageWidth;
+				for(int counterx = 0; counterx < imageWidth; counterx++){
+
+					int currentPixel = pixels[rowOffset + counterx];
+					int sumIndex = 4 * columns[counterx];
+					sums[sumIndex] += currentPixel >>> 24;
+					sums[sumIndex + 1] += (currentPixel >> 16) & 0xff;
+					sums[sumIndex + 2] += (currentPixel >> 8) & 0xff;
+					sums[sumIndex + 3] += currentPixel & 0xff;
+				}
+			}
+
+			int rowCount = lastRow - firstRow;
+			int resultOffset = scaledy * scaledWidth;
+			for(int scaledx = 0; scaledx < scaledWidth; scaledx++){
+
+				long count = (long)rowCount * columnWidths[scaledx];
+				int sumIndex = 4 * scaledx;
+				int alpha = (int)((sums[sumIndex] + count / 2) / count);
+				int red = (int)((sums[sumIndex + 1] + count / 2) / count);
+				int green = (int)((sums[sumIndex + 2] + count / 2) / count);
+				int blue = (int)((sums[sumIndex + 3] + count / 2) / count);
+				result[resultOffset + scaledx] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+
+				sums[sumIndex] = 0;
+				sums[sumIndex + 1] = 0;
+				sums[sumIndex + 2] = 0;
+				sums[sumIndex + 3] = 0;
+			}
+			firstRow = lastRow;
+		}
+	}
+
+}
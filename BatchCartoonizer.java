@@ -0,0 +1,488 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+
+//headless entry point that cartoonizes many images concurrently.
+//every image goes through three stages (decode, filter, encode) that run on separate executors, so that
+//reading and writing files overlaps with the filter computation of other images.
+//The metrics of the pipeline are registered with JMX while the batch runs, and with -metrics the measurements of
+//every image are written to a file as one JSON object per line. With -decode-cache the decoded images are kept as
+//raw pixel files, so that later runs over the same images skip decoding; the output format raw writes raw pixel files.
+//With -max-size the images are decoded at a reduced resolution and cartoonized at the given size.
+//An output file is named after the input file with the extension of the output format. Input files that would
+//get the same name, such as x.jpg and x.png or a/x.jpg and b/x.jpg, keep their extension (x.jpg.png), and if the
+//names still clash a number is added to the later ones (x.jpg-2.png)
+public class BatchCartoonizer {
+
+	private final File outputDirectory;
+	private final String outputFormat;
+	private final int computeThreadCount;
+	private final int ioThreadCount;
+	private final CartoonPipeline pipeline;
+	//receives a JSON line per image, or null
+	private final Writer metricsWriter;
+	//decoded images of earlier runs, or null
+	private DecodeCache decodeCache;
+
+	//statistics collected while the batch is running
+	private final AtomicInteger processedImageCount = new AtomicInteger();
+	private final AtomicInteger failedImageCount = new AtomicInteger();
+	private final AtomicLong processedPixelCount = new AtomicLong();
+
+	//images are processed in parallel, one per compute thread, so the pipeline should have a parallelism of 1
+	public BatchCartoonizer(File outputDirectory, String outputFormat, int computeThreadCount, int ioThreadCount, CartoonPipeline pipeline){
+		this(outputDirectory, outputFormat, computeThreadCount, ioThreadCount, pipeline, null);
+	}
+
+	//writes the metrics of every image to metricsWriter as a line of JSON, metricsWriter may be null
+	public BatchCartoonizer(File outputDirectory, String outputFormat, int computeThreadCount, int ioThreadCount, CartoonPipeline pipeline,
+			Writer metricsWriter){
+
+		this.outputDirectory = outputDirectory;
+		this.outputFormat = outputFormat;
+		this.computeThreadCount = computeThreadCount;
+		this.ioThreadCount = ioThreadCount;
+		this.pipeline = pipeline;
+		this.metricsWriter = metricsWriter;
+	}
+
+	//reads the input images through the cache, cache may be null
+	public void setDecodeCache(DecodeCache decodeCache){
+		this.decodeCache = decodeCache;
+	}
+
+	//processes all input files and prints per-image and aggregate throughput
+	public void run(List<File> inputFiles) throws InterruptedException{
+
+		ExecutorService decodeExecutor = Executors.newFixedThreadPool(ioThreadCount);
+		ExecutorService computeExecutor = Executors.newFixedThreadPool(computeThreadCount);
+		ExecutorService encodeExecutor = Executors.newFixedThreadPool(ioThreadCount);
+
+		//bounds the number of images that are in memory at the same time. Two images per compute thread keep
+		//the compute threads busy while the next images are decoded
+		final Semaphore inFlightImages = new Semaphore(computeThreadCount * 2);
+		final CountDownLatch remainingImages = new CountDownLatch(inputFiles.size());
+
+		List<File> outputFiles = getOutputFiles(inputFiles, outputDirectory, outputFormat);
+		long startTime = System.nanoTime();
+
+		try{
+			for(int i = 0; i < inputFiles.size(); i++){
+				inFlightImages.acquire();
+				BatchItem item = new BatchItem(inputFiles.get(i), outputFiles.get(i));
+				decodeExecutor.execute(new DecodeTask(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages));
+			}
+			remainingImages.await();
+		}finally{
+			decodeExecutor.shutdown();
+			computeExecutor.shutdown();
+			encodeExecutor.shutdown();
+		}
+
+		double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+		int imageCount = processedImageCount.get();
+		double megapixels = processedPixelCount.get() / 1e6;
+
+		System.out.println(String.format(Locale.ROOT, "processed %d images (%d failed) in %.2f s: %.2f images/s, %.2f MP/s",
+				imageCount, failedImageCount.get(), elapsedSeconds, imageCount / elapsedSeconds, megapixels / elapsedSeconds));
+
+		PipelineMetrics metrics = pipeline.getMetrics();
+		System.out.println(String.format(Locale.ROOT, "filters: segmentation %.1f ms, filtering %.1f ms, cpu %.1f ms, %.1f MB allocated per image, %.1f k-means iterations",
+				metrics.getSegmentationMillis() / Math.max(1, metrics.getImageCount()), metrics.getFilteringMillis() / Math.max(1, metrics.getImageCount()),
+				metrics.getCpuMillis() / Math.max(1, metrics.getImageCount()), metrics.getAllocatedBytes() / 1e6 / Math.max(1, metrics.getImageCount()),
+				(double)metrics.getIterationCount() / Math.max(1, metrics.getImageCount())));
+	}
+
+	//returns the output file in outputDirectory of every input file, so that no two input files are written to the
+	//same file. The output files get the extension of outputFormat, or keep the extension of the input file if it
+	//is null. The names are compared ignoring case, for the file systems that do
+	static List<File> getOutputFiles(List<File> inputFiles, File outputDirectory, String outputFormat){
+
+		//number of input files that would get each name
+		Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+		for(File inputFile : inputFiles){
+			String key = getOutputName(inputFile, outputFormat, false).toLowerCase(Locale.ROOT);
+			Integer count = nameCounts.get(key);
+			nameCounts.put(key, count == null ? 1 : count + 1);
+		}
+
+		Set<String> usedNames = new HashSet<String>();
+		List<File> outputFiles = new ArrayList<File>(inputFiles.size());
+		for(File inputFile : inputFiles){
+
+			String name = getOutputName(inputFile, outputFormat, false);
+			if(nameCounts.get(name.toLowerCase(Locale.ROOT)) > 1){
+				name = getOutputName(inputFile, outputFormat, true);
+			}
+			String uniqueName = name;
+			for(int number = 2; !usedNames.add(uniqueName.toLowerCase(Locale.ROOT)); number++){
+				uniqueName = FilenameUtils.getBaseName(name) + "-" + number + "." + FilenameUtils.getExtension(name);
+			}
+			if(!uniqueName.equals(name) || !name.equals(getOutputName(inputFile, outputFormat, false))){
+				System.err.println(inputFile + " is written to " + uniqueName + ", another input file has the same name");
+			}
+			outputFiles.add(new File(outputDirectory, uniqueName));
+		}
+		return outputFiles;
+	}
+
+	//name of the output file of an input file, with the extension of the input file if keepExtension is true
+	private static String getOutputName(File inputFile, String outputFormat, boolean keepExtension){
+
+		String format = outputFormat != null ? outputFormat : FilenameUtils.getExtension(inputFile.getName());
+		String baseName = keepExtension ? inputFile.getName() : FilenameUtils.getBaseName(inputFile.getName());
+		return baseName + "." + format;
+	}
+
+	//writes the metrics of an image as a line of JSON. error is null if the image was written
+	private void writeMetrics(BatchItem item, String error){
+
+		if(metricsWriter == null){
+			return;
+		}
+
+		StringBuilder line = new StringBuilder("{\"file\":").append(quoteJson(item.inputFile.getPath()));
+		if(error != null){
+			line.append(",\"error\":").append(quoteJson(error));
+		}else{
+			line.append(String.format(Locale.ROOT, ",\"decodeMillis\":%.3f,\"filterMillis\":%.3f,\"encodeMillis\":%.3f,\"filters\":",
+					item.decodeNanos / 1e6, item.filterNanos / 1e6, item.encodeNanos / 1e6));
+			line.append(item.metrics.toJson());
+		}
+		line.append('}').append('\n');
+
+		try{
+			synchronized(metricsWriter){
+				metricsWriter.write(line.toString());
+				metricsWriter.flush();
+			}
+		}catch(IOException ex){
+			System.err.println("cannot write metrics: " + ex.getMessage());
+		}
+	}
+
+	private static String quoteJson(String value){
+
+		StringBuilder quoted = new StringBuilder("\"");
+		for(int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\'){
+				quoted.append('\\').append(c);
+			}else if(c < 0x20){
+				quoted.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+			}else{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	//state of a single image travelling through the stages
+	class BatchItem{
+		File inputFile;
+		File outputFile;
+		BufferedImage image;
+		long decodeNanos;
+		long filterNanos;
+		long encodeNanos;
+		ImageMetrics metrics;
+
+		BatchItem(File inputFile, File outputFile){
+			this.inputFile = inputFile;
+			this.outputFile = outputFile;
+		}
+	}
+
+	abstract class StageTask implements Runnable{
+
+		final BatchItem item;
+		final ExecutorService computeExecutor;
+		final ExecutorService encodeExecutor;
+		final Semaphore inFlightImages;
+		final CountDownLatch remainingImages;
+
+		StageTask(BatchItem item, ExecutorService computeExecutor, ExecutorService encodeExecutor, Semaphore inFlightImages, CountDownLatch remainingImages){
+			this.item = item;
+			this.computeExecutor = computeExecutor;
+			this.encodeExecutor = encodeExecutor;
+			this.inFlightImages = inFlightImages;
+			this.remainingImages = remainingImages;
+		}
+
+		public void run(){
+			try{
+				runStage();
+			}catch(Throwable ex){
+				//errors such as an OutOfMemoryError on a large image fail the image too, the batch must not wait
+				//for it forever
+				try{
+					String message = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+					System.err.println(item.inputFile + ": " + message);
+					failedImageCount.incrementAndGet();
+					writeMetrics(item, message);
+				}finally{
+					finish();
+				}
+			}
+		}
+
+		abstract void runStage() throws IOException;
+
+		//releases the slot of the item so that the next image can be decoded
+		void finish(){
+			item.image = null;
+			inFlightImages.release();
+			remainingImages.countDown();
+		}
+	}
+
+	class DecodeTask extends StageTask{
+
+		DecodeTask(BatchItem item, ExecutorService computeExecutor, ExecutorService encodeExecutor, Semaphore inFlightImages, CountDownLatch remainingImages){
+			super(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages);
+		}
+
+		void runStage() throws IOException{
+			long startTime = System.nanoTime();
+			//with a max dimension only the pixels needed for it are decoded
+			int maxDimension = pipeline.getMaxDimension();
+			if(decodeCache != null){
+				item.image = decodeCache.read(item.inputFile, maxDimension);
+			}else if(maxDimension > 0){
+				item.image = SubsampledDecoder.read(item.inputFile, maxDimension);
+			}else{
+				item.image = ImageIO.read(item.inputFile);
+			}
+			if(item.image == null){
+				throw new IOException("unsupported image format");
+			}
+			item.decodeNanos = System.nanoTime() - startTime;
+			computeExecutor.execute(new FilterTask(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages));
+		}
+	}
+
+	class FilterTask extends StageTask{
+
+		FilterTask(BatchItem item, ExecutorService computeExecutor, ExecutorService encodeExecutor, Semaphore inFlightImages, CountDownLatch remainingImages){
+			super(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages);
+		}
+
+		void runStage(){
+			long startTime = System.nanoTime();
+			item.metrics = new ImageMetrics(item.image.getWidth(), item.image.getHeight());
+			item.image = pipeline.cartoonize(item.image, item.metrics);
+			item.filterNanos = System.nanoTime() - startTime;
+			encodeExecutor.execute(new EncodeTask(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages));
+		}
+	}
+
+	class EncodeTask extends StageTask{
+
+		EncodeTask(BatchItem item, ExecutorService computeExecutor, ExecutorService encodeExecutor, Semaphore inFlightImages, CountDownLatch remainingImages){
+			super(item, computeExecutor, encodeExecutor, inFlightImages, remainingImages);
+		}
+
+		void runStage() throws IOException{
+			long startTime = System.nanoTime();
+			String format = FilenameUtils.getExtension(item.outputFile.getName());
+			if(format.equals(RawPixelFile.EXTENSION)){
+				RawPixelFile.write(item.image, item.outputFile);
+			}else if(!ImageIO.write(item.image, format, item.outputFile)){
+				throw new IOException("no image writer for format " + format);
+			}
+			item.encodeNanos = System.nanoTime() - startTime;
+
+			long pixelCount = (long)item.image.getWidth() * item.image.getHeight();
+			processedImageCount.incrementAndGet();
+			processedPixelCount.addAndGet(pixelCount);
+
+			double filterSeconds = item.filterNanos / 1e9;
+			System.out.println(String.format(Locale.ROOT, "%s: %dx%d decode %.1f ms, filter %.1f ms, encode %.1f ms, %.2f MP/s",
+					item.inputFile.getName(), item.image.getWidth(), item.image.getHeight(), item.decodeNanos / 1e6, item.filterNanos / 1e6,
+					item.encodeNanos / 1e6, pixelCount / 1e6 / filterSeconds));
+			writeMetrics(item, null);
+
+			finish();
+		}
+	}
+
+	//expands directories into the image files they contain and reads file lists
+	static List<File> collectInputFiles(List<String> inputPaths, List<String> listFiles) throws IOException{
+
+		Set<String> imageSuffixes = new HashSet<String>();
+		for(String suffix : ImageIO.getReaderFileSuffixes()){
+			imageSuffixes.add(suffix.toLowerCase(Locale.ROOT));
+		}
+
+		List<String> paths = new ArrayList<String>(inputPaths);
+		for(String listFile : listFiles){
+			BufferedReader reader = new BufferedReader(new FileReader(listFile));
+			try{
+				String line;
+				while((line = reader.readLine()) != null){
+					line = line.trim();
+					if(line.length() != 0){
+						paths.add(line);
+					}
+				}
+			}finally{
+				reader.close();
+			}
+		}
+
+		List<File> inputFiles = new ArrayList<File>();
+		for(String path : paths){
+			File file = new File(path);
+			if(file.isDirectory()){
+				File children[] = file.listFiles();
+				if(children == null){
+					throw new IOException("cannot list directory " + file);
+				}
+				Arrays.sort(children);
+				for(File child : children){
+					if(child.isFile() && imageSuffixes.contains(FilenameUtils.getExtension(child.getName()).toLowerCase(Locale.ROOT))){
+						inputFiles.add(child);
+					}
+				}
+			}else{
+				inputFiles.add(file);
+			}
+		}
+		return inputFiles;
+	}
+
+	static Properties loadProperties(File file) throws IOException{
+
+		Properties properties = new Properties();
+		FileReader reader = new FileReader(file);
+		try{
+			properties.load(reader);
+		}finally{
+			reader.close();
+		}
+		return properties;
+	}
+
+	private static void printUsage(){
+		System.err.println("usage: BatchCartoonizer -o <output directory> [-format <png|jpg|raw|...>] [-threads <n>] [-io-threads <n>]");
+		System.err.println("                        [-sample <fraction of pixels the colors are fitted on, e.g. 0.02>]");
+		System.err.println("                        [-max-size <largest width or height of the output images, e.g. 1920>]");
+		System.err.println("                        [-config <properties file with the pipeline parameters, see CartoonPipeline.Builder>]");
+		System.err.println("                        [-metrics <file the metrics of every image are written to as JSON lines>]");
+		System.err.println("                        [-decode-cache <directory the decoded images are kept in as raw pixel files>]");
+		System.err.println("                        [-list <file with one input path per line>]... <input file or directory>...");
+	}
+
+	public static void main(String[] args) throws Exception{
+
+		File outputDirectory = null;
+		String outputFormat = null;
+		int computeThreadCount = Runtime.getRuntime().availableProcessors();
+		int ioThreadCount = Math.max(2, computeThreadCount / 4);
+		//images are already processed in parallel, one per compute thread
+		CartoonPipeline.Builder pipelineBuilder = new CartoonPipeline.Builder().parallelism(1);
+		List<String> inputPaths = new ArrayList<String>();
+		List<String> listFiles = new ArrayList<String>();
+		File metricsFile = null;
+		File decodeCacheDirectory = null;
+
+		try{
+			for(int i = 0; i < args.length; i++){
+				if(args[i].equals("-o")){
+					outputDirectory = new File(args[++i]);
+				}else if(args[i].equals("-format")){
+					outputFormat = args[++i];
+				}else if(args[i].equals("-threads")){
+					computeThreadCount = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-io-threads")){
+					ioThreadCount = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-sample")){
+					pipelineBuilder.sampling(Double.parseDouble(args[++i]), false);
+				}else if(args[i].equals("-max-size")){
+					pipelineBuilder.maxDimension(Integer.parseInt(args[++i]));
+				}else if(args[i].equals("-config")){
+					pipelineBuilder.properties(loadProperties(new File(args[++i])));
+				}else if(args[i].equals("-metrics")){
+					metricsFile = new File(args[++i]);
+				}else if(args[i].equals("-decode-cache")){
+					decodeCacheDirectory = new File(args[++i]);
+				}else if(args[i].equals("-list")){
+					listFiles.add(args[++i]);
+				}else{
+					inputPaths.add(args[i]);
+				}
+			}
+		}catch(RuntimeException ex){
+			printUsage();
+			System.exit(2);
+		}
+
+		if(outputDirectory == null || (inputPaths.isEmpty() && listFiles.isEmpty()) || computeThreadCount < 1 || ioThreadCount < 1){
+			printUsage();
+			System.exit(2);
+		}
+
+		CartoonPipeline pipeline = null;
+		try{
+			pipeline = pipelineBuilder.build();
+		}catch(IllegalArgumentException ex){
+			System.err.println(ex.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()){
+			System.err.println("cannot create output directory " + outputDirectory);
+			System.exit(1);
+		}
+
+		pipeline.getMetrics().register("batch");
+
+		List<File> inputFiles;
+		try{
+			inputFiles = collectInputFiles(inputPaths, listFiles);
+		}catch(IOException ex){
+			System.err.println(ex.getMessage());
+			System.exit(1);
+			return;
+		}
+		Writer metricsWriter = metricsFile != null ? new FileWriter(metricsFile) : null;
+		try{
+			BatchCartoonizer batchCartoonizer = new BatchCartoonizer(outputDirectory, outputFormat, computeThreadCount, ioThreadCount, pipeline, metricsWriter);
+			if(decodeCacheDirectory != null){
+				batchCartoonizer.setDecodeCache(new DecodeCache(decodeCacheDirectory));
+			}
+			batchCartoonizer.run(inputFiles);
+		}finally{
+			if(metricsWriter != null){
+				metricsWriter.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package source;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+//pool of int arrays keyed by their length, so the scratch arrays of images of the same size are reused instead
+//of being allocated for every image. The pool is thread-safe. Released arrays are kept until the pool holds
+//maxRetainedBytes in arrays of all lengths together, further released arrays are left to the garbage collector.
+//Acquired arrays are not cleared. Memory that is kept for reuse outside the pool, such as the arrays of the
+//segmenters a SegmentationStage keeps, can be counted against the same budget with reserve.
+public class BufferPool {
+
+	private final long maxRetainedBytes;
+	private long retainedBytes;
+	//bytes reserved for memory kept outside the pool
+	private long reservedBytes;
+
+	//free arrays by their length. A length is removed when its last array is taken, so a pool used for images
+	//of many sizes only holds the lengths of the arrays it retains
+	private final Map<Integer, ArrayDeque<int[]>> freeBuffers = new HashMap<Integer, ArrayDeque<int[]>>();
+
+	public BufferPool(long maxRetainedBytes){
+
+		if(maxRetainedBytes < 0){
+			throw new IllegalArgumentException("retained bytes must not be negative: " + maxRetainedBytes);
+		}
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	//returns an array of the given length, with undefined contents
+	public synchronized int[] acquire(int length){
+
+		ArrayDeque<int[]> buffers = freeBuffers.get(length);
+		if(buffers == null){
+			return new int[length];
+		}
+
+		int buffer[] = buffers.pop();
+		if(buffers.isEmpty()){
+			freeBuffers.remove(length);
+		}
+		retainedBytes -= 4L * length;
+		return buffer;
+	}
+
+	//returns an array acquired from the pool, it must not be used afterwards
+	public synchronized void release(int buffer[]){
+
+		long bytes = 4L * buffer.length;
+		if(retainedBytes + reservedBytes + bytes > maxRetainedBytes){
+			return;
+		}
+
+		ArrayDeque<int[]> buffers = freeBuffers.get(buffer.length);
+		if(buffers == null){
+			buffers = new ArrayDeque<int[]>();
+			freeBuffers.put(buffer.length, buffers);
+		}
+
+		buffers.push(buffer);
+		retainedBytes += bytes;
+	}
+
+	//counts bytes kept outside the pool against its budget. Returns false, and reserves nothing, if they don't fit
+	public synchronized boolean reserve(long bytes){
+
+		if(retainedBytes + reservedBytes + bytes > maxRetainedBytes){
+			return false;
+		}
+		reservedBytes += bytes;
+		return true;
+	}
+
+	//gives back bytes reserved with reserve
+	public synchronized void unreserve(long bytes){
+		reservedBytes -= bytes;
+	}
+
+	public synchronized long getRetainedBytes(){
+		return retainedBytes;
+	}
+
+	public synchronized long getReservedBytes(){
+		return reservedBytes;
+	}
+
+	//drops all arrays held by the pool, the reserved bytes stay reserved
+	public synchronized void clear(){
+
+		freeBuffers.clear();
+		retainedBytes = 0;
+	}
+
+}
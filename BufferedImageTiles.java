@@ -0,0 +1,48 @@
+package source;
+
+import java.awt.image.BufferedImage;
+
+//tile source and sink backed by a BufferedImage
+public class BufferedImageTiles implements TileSource, TileSink {
+
+	private final BufferedImage image;
+
+	public BufferedImageTiles(BufferedImage image){
+		this.image = image;
+	}
+
+	public BufferedImage getImage(){
+		return image;
+	}
+
+	public int getWidth(){
+		return image.getWidth();
+	}
+
+	public int getHeight(){
+		return image.getHeight();
+	}
+
+	public void readRegion(int x, int y, int width, int height, int pixels[]){
+		image.getRGB(x, y, width, height, pixels, 0, width);
+	}
+
+	public int[] readSubsampled(int stride){
+
+		int sampleWidth = (image.getWidth() + stride - 1) / stride;
+		int sampleHeight = (image.getHeight() + stride - 1) / stride;
+
+		int sample[] = new int[sampleWidth * sampleHeight];
+		for(int countery = 0; countery < sampleHeight; countery++){
+			for(int counterx = 0; counterx < sampleWidth; counterx++){
+				sample[countery * sampleWidth + counterx] = image.getRGB(counterx * stride, countery * stride);
+			}
+		}
+		return sample;
+	}
+
+	public void writeRegion(int x, int y, int width, int height, int pixels[]){
+		image.setRGB(x, y, width, height, pixels, 0, width);
+	}
+
+}
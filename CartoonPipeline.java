@@ -0,0 +1,333 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+//cartoonizer with its own configuration, made of a segmentation, a median and an edge stage. A pipeline is
+//configured once with a Builder and can then be used by any number of threads for any number of images. The
+//scratch arrays of the stages come from a buffer pool keyed by array length, so once a pipeline has seen an image
+//size, further images of that size don't allocate arrays that grow with the image; what is still allocated per
+//image are a few objects and arrays of the cluster count, and the result pixels unless the caller provides them.
+//The time and allocations of every image are added to the pipeline's metrics, which can be registered with JMX.
+//Example:
+//CartoonPipeline pipeline = new CartoonPipeline.Builder().clusterCount(16).medianWindow(7, 7).edgeThreshold(80).build();
+public class CartoonPipeline {
+
+	private final SegmentationStage segmentationStage;
+	private final MedianStage medianStage;
+	private final EdgeStage edgeStage;
+	private final BufferPool bufferPool;
+	private final PipelineMetrics metrics = new PipelineMetrics();
+	//larger side images are downscaled to before they are cartoonized, 0 if they keep their size
+	private final int maxDimension;
+	//pool created for the pipeline's parallelism, shut down by shutdown. null if the pipeline uses the common
+	//pool or a single thread
+	private final ForkJoinPool ownPool;
+
+	private CartoonPipeline(Builder builder){
+
+		PixelKernels kernels = builder.vectorKernels ? PixelKernels.getInstance() : PixelKernels.getScalarInstance();
+
+		ForkJoinPool pool;
+		if(builder.parallelism == 0){
+			pool = ForkJoinPool.commonPool();
+			ownPool = null;
+		}else if(builder.parallelism == 1){
+			pool = null;
+			ownPool = null;
+		}else{
+			pool = new ForkJoinPool(builder.parallelism);
+			ownPool = pool;
+		}
+
+		maxDimension = builder.maxDimension;
+		bufferPool = builder.bufferPool != null ? builder.bufferPool : new BufferPool(builder.pooledBytes);
+		segmentationStage = new SegmentationStage(builder.clusterCount, builder.loopCount, builder.seed, builder.sampleFraction, builder.randomSampling,
+				builder.convergenceThreshold, builder.colorHistogram, kernels, pool, bufferPool);
+		medianStage = new MedianStage(builder.medianWindowWidth, builder.medianWindowHeight, bufferPool);
+		edgeStage = new EdgeStage(builder.edgeThreshold, builder.edgeDetector, kernels, bufferPool);
+	}
+
+	public SegmentationStage getSegmentationStage(){
+		return segmentationStage;
+	}
+
+	public MedianStage getMedianStage(){
+		return medianStage;
+	}
+
+	public EdgeStage getEdgeStage(){
+		return edgeStage;
+	}
+
+	public BufferPool getBufferPool(){
+		return bufferPool;
+	}
+
+	//totals of all images the pipeline cartoonized
+	public PipelineMetrics getMetrics(){
+		return metrics;
+	}
+
+	public int getMaxDimension(){
+		return maxDimension;
+	}
+
+	//cartoonizes image and returns the result as a new image of the same type. If the pipeline has a max
+	//dimension, larger images are area averaged down to it first and the result has the reduced size
+	public BufferedImage cartoonize(BufferedImage image){
+		return cartoonize(image, null);
+	}
+
+	//cartoonizes image like cartoonize(image) and stores the measurements of the image in imageMetrics, which may
+	//be null
+	public BufferedImage cartoonize(BufferedImage image, ImageMetrics imageMetrics){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+
+		int pixelBuffer[] = bufferPool.acquire(imageWidth * imageHeight);
+		int pixels[] = RasterPixels.getPixels(image, pixelBuffer);
+
+		if(maxDimension > 0){
+			int scaledSize[] = AreaDownscaler.getScaledSize(imageWidth, imageHeight, maxDimension);
+			if(scaledSize[0] != imageWidth || scaledSize[1] != imageHeight){
+
+				int scaledPixels[] = bufferPool.acquire(scaledSize[0] * scaledSize[1]);
+				AreaDownscaler.scale(pixels, imageWidth, imageHeight, scaledPixels, scaledSize[0], scaledSize[1]);
+				bufferPool.release(pixelBuffer);
+
+				pixelBuffer = scaledPixels;
+				pixels = scaledPixels;
+				imageWidth = scaledSize[0];
+				imageHeight = scaledSize[1];
+			}
+		}
+		int pixelCount = imageWidth * imageHeight;
+
+		//images of TYPE_INT_RGB and TYPE_INT_ARGB keep the result array, the other types copy it
+		boolean sharedResult = image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB
+				|| image.getType() == BufferedImage.TYPE_CUSTOM;
+		int resultPixels[] = sharedResult ? new int[pixelCount] : bufferPool.acquire(pixelCount);
+
+		cartoonize(pixels, imageWidth, imageHeight, resultPixels, null, imageMetrics);
+		bufferPool.release(pixelBuffer);
+
+		BufferedImage result = RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+		if(!sharedResult){
+			bufferPool.release(resultPixels);
+		}
+		return result;
+	}
+
+	//cartoonizes the packed RGB pixels of an image into result, which may be the pixel array
+	public void cartoonize(int pixels[], int imageWidth, int imageHeight, int result[]){
+		cartoonize(pixels, imageWidth, imageHeight, result, null);
+	}
+
+	//cartoonizes like cartoonize(pixels, imageWidth, imageHeight, result) and reports the progress of the stages to
+	//the listener, which may be null. A cancelled listener stops the stages with a CancellationException
+	public void cartoonize(int pixels[], int imageWidth, int imageHeight, int result[], ProgressListener progressListener){
+		cartoonize(pixels, imageWidth, imageHeight, result, progressListener, null);
+	}
+
+	//cartoonizes like cartoonize(pixels, imageWidth, imageHeight, result, progressListener) and stores the
+	//measurements of the image in imageMetrics, which may be null
+	public void cartoonize(int pixels[], int imageWidth, int imageHeight, int result[], ProgressListener progressListener, ImageMetrics imageMetrics){
+
+		if(imageMetrics == null){
+			imageMetrics = new ImageMetrics(imageWidth, imageHeight);
+		}
+
+		int labels[] = bufferPool.acquire(pixels.length);
+		try{
+			imageMetrics.startStage();
+			KMeansSegmenter segmenter = segmentationStage.segment(pixels, labels, progressListener);
+			imageMetrics.recordSegmentation(segmenter);
+			imageMetrics.endStage(ProgressListener.Stage.SEGMENTATION);
+
+			imageMetrics.startStage();
+			PaletteMedianFilter medianFilter = medianStage.createFilter(labels, imageWidth, imageHeight, segmenter);
+			try{
+				edgeStage.filter(medianFilter, imageWidth, imageHeight, result, progressListener);
+			}finally{
+				medianFilter.release();
+				segmentationStage.release(segmenter);
+			}
+			imageMetrics.endStage(ProgressListener.Stage.FILTERING);
+		}catch(RuntimeException ex){
+			metrics.recordFailure();
+			throw ex;
+		}finally{
+			bufferPool.release(labels);
+		}
+		metrics.record(imageMetrics);
+	}
+
+	//shuts down the threads the pipeline created for its parallelism
+	public void shutdown(){
+
+		if(ownPool != null){
+			ownPool.shutdown();
+		}
+	}
+
+	//configuration of a pipeline. The defaults are the parameters of Filters.cartoonizeImage
+	public static class Builder{
+
+		private int clusterCount = Filters.SEGMENTATION_CLUSTER_COUNT;
+		private int loopCount = Filters.SEGMENTATION_LOOP_COUNT;
+		private long seed = 0;
+		private double sampleFraction = 1;
+		private boolean randomSampling = false;
+		private double convergenceThreshold = 0;
+		private boolean colorHistogram = true;
+		private int medianWindowWidth = Filters.MEDIAN_FILTER_WINDOW_WIDTH;
+		private int medianWindowHeight = Filters.MEDIAN_FILTER_WINDOW_HEIGHT;
+		private int edgeThreshold = Filters.EDGE_DETECTION_THRESHOLD;
+		private EdgeDetector edgeDetector = EdgeDetector.SOBEL;
+		//0 uses the common fork-join pool
+		private int parallelism = 0;
+		private boolean vectorKernels = true;
+		private BufferPool bufferPool;
+		private long pooledBytes = 256L << 20;
+		private int maxDimension = 0;
+
+		public Builder clusterCount(int clusterCount){
+			this.clusterCount = clusterCount;
+			return this;
+		}
+
+		public Builder loopCount(int loopCount){
+			this.loopCount = loopCount;
+			return this;
+		}
+
+		public Builder seed(long seed){
+			this.seed = seed;
+			return this;
+		}
+
+		//fits the cluster centers on the given fraction of the pixels, picked at random or strided
+		public Builder sampling(double sampleFraction, boolean randomSampling){
+			this.sampleFraction = sampleFraction;
+			this.randomSampling = randomSampling;
+			return this;
+		}
+
+		public Builder convergenceThreshold(double convergenceThreshold){
+			this.convergenceThreshold = convergenceThreshold;
+			return this;
+		}
+
+		public Builder colorHistogram(boolean colorHistogram){
+			this.colorHistogram = colorHistogram;
+			return this;
+		}
+
+		public Builder medianWindow(int windowWidth, int windowHeight){
+			this.medianWindowWidth = windowWidth;
+			this.medianWindowHeight = windowHeight;
+			return this;
+		}
+
+		public Builder edgeThreshold(int edgeThreshold){
+			this.edgeThreshold = edgeThreshold;
+			return this;
+		}
+
+		public Builder edgeDetector(EdgeDetector edgeDetector){
+			this.edgeDetector = edgeDetector;
+			return this;
+		}
+
+		//number of threads the segmentation of one image uses, 1 runs it on the calling thread
+		public Builder parallelism(int parallelism){
+
+			if(parallelism < 1){
+				throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		public Builder vectorKernels(boolean vectorKernels){
+			this.vectorKernels = vectorKernels;
+			return this;
+		}
+
+		//shares a buffer pool between pipelines, by default every pipeline has its own
+		public Builder bufferPool(BufferPool bufferPool){
+			this.bufferPool = bufferPool;
+			return this;
+		}
+
+		//most bytes the pipeline's own buffer pool keeps
+		public Builder pooledBytes(long pooledBytes){
+			this.pooledBytes = pooledBytes;
+			return this;
+		}
+
+		//downscales images whose larger side is above maxDimension before cartoonizing them, 0 keeps the size
+		public Builder maxDimension(int maxDimension){
+
+			if(maxDimension < 0){
+				throw new IllegalArgumentException("max dimension must not be negative: " + maxDimension);
+			}
+			this.maxDimension = maxDimension;
+			return this;
+		}
+
+		//applies the parameters given as properties, so that they can come from a configuration file. The keys are
+		//clusters, loops, seed, sample, randomSampling, convergence, colorHistogram, medianWidth, medianHeight,
+		//edgeThreshold, edgeDetector (sobel, scharr or canny), threads, vectorKernels, pooledMegabytes and maxDimension
+		public Builder properties(Properties properties){
+
+			for(String key : properties.stringPropertyNames()){
+
+				String value = properties.getProperty(key).trim();
+				if(key.equals("clusters")){
+					clusterCount = Integer.parseInt(value);
+				}else if(key.equals("loops")){
+					loopCount = Integer.parseInt(value);
+				}else if(key.equals("seed")){
+					seed = Long.parseLong(value);
+				}else if(key.equals("sample")){
+					sampleFraction = Double.parseDouble(value);
+				}else if(key.equals("randomSampling")){
+					randomSampling = Boolean.parseBoolean(value);
+				}else if(key.equals("convergence")){
+					convergenceThreshold = Double.parseDouble(value);
+				}else if(key.equals("colorHistogram")){
+					colorHistogram = Boolean.parseBoolean(value);
+				}else if(key.equals("medianWidth")){
+					medianWindowWidth = Integer.parseInt(value);
+				}else if(key.equals("medianHeight")){
+					medianWindowHeight = Integer.parseInt(value);
+				}else if(key.equals("edgeThreshold")){
+					edgeThreshold = Integer.parseInt(value);
+				}else if(key.equals("edgeDetector")){
+					edgeDetector = EdgeDetector.valueOf(value.toUpperCase(Locale.ROOT));
+				}else if(key.equals("threads")){
+					parallelism(Integer.parseInt(value));
+				}else if(key.equals("vectorKernels")){
+					vectorKernels = Boolean.parseBoolean(value);
+				}else if(key.equals("pooledMegabytes")){
+					pooledBytes = Long.parseLong(value) << 20;
+				}else if(key.equals("maxDimension")){
+					maxDimension(Integer.parseInt(value));
+				}else{
+					throw new IllegalArgumentException("unknown pipeline property: " + key);
+				}
+			}
+			return this;
+		}
+
+		public CartoonPipeline build(){
+			return new CartoonPipeline(this);
+		}
+	}
+
+}
@@ -0,0 +1,466 @@
+package source;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+//cartoonizes images uploaded over HTTP, for services running on the same machine; the server only listens on the
+//loopback address.
+//POST /cartoonize with the image file as the request body returns the cartoonized image, as PNG or in the format
+//given by the format query parameter, e.g. /cartoonize?format=jpg.
+//GET /metrics returns the request counts, the queue depth and percentiles of the request latency as JSON.
+//The exchanges are handled on virtual threads if the JVM has them and on a cached thread pool otherwise, and the
+//images are cartoonized on a fixed number of compute threads. An upload takes one of computeThreadCount +
+//queueCapacity permits before it is read and gives it back once its result is written, so at most queueCapacity
+//images wait for a compute thread; further uploads are answered with 429 Too Many Requests without being read, and
+//a burst of uploads can't hold more than that many images in memory. The width and height of an upload are read
+//from its header before it is decoded, and images of more than maxPixels pixels are answered with 413 Payload
+//Too Large, since a small upload can declare an image of many gigabytes.
+//Example: java source.CartoonizeServer -port 8080 -threads 4 -queue 8
+//         curl --data-binary @photo.jpg -o cartoon.png http://localhost:8080/cartoonize
+public class CartoonizeServer {
+
+	//percentiles of the request latency reported by /metrics
+	private static final double LATENCY_PERCENTILES[] = {0.5, 0.9, 0.99, 1};
+	private static final String LATENCY_PERCENTILE_NAMES[] = {"p50", "p90", "p99", "max"};
+
+	private final CartoonPipeline pipeline;
+	private final int queueCapacity;
+	private final long maxUploadBytes;
+	private final long maxPixels;
+	private final HttpServer server;
+	private final ExecutorService requestExecutor;
+	private final ThreadPoolExecutor computeExecutor;
+	//one permit per image that is read, waiting, cartoonized or written
+	private final Semaphore uploadPermits;
+
+	//latency of the answered uploads, from the request to the last byte of the image
+	private final LatencyRecorder latencies = new LatencyRecorder(1024);
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	//images are cartoonized in parallel, one per compute thread, so the pipeline should have a parallelism of 1.
+	//port 0 picks a free port, see getPort
+	public CartoonizeServer(int port, CartoonPipeline pipeline, int computeThreadCount, int queueCapacity, long maxUploadBytes, long maxPixels) throws IOException{
+
+		if(computeThreadCount < 1 || queueCapacity < 1){
+			throw new IllegalArgumentException("thread count and queue capacity must be positive: " + computeThreadCount + ", " + queueCapacity);
+		}
+
+		this.pipeline = pipeline;
+		this.queueCapacity = queueCapacity;
+		this.maxUploadBytes = maxUploadBytes;
+		this.maxPixels = maxPixels;
+
+		requestExecutor = createRequestExecutor();
+		//the default abort policy rejects tasks once the queue is full
+		computeExecutor = new ThreadPoolExecutor(computeThreadCount, computeThreadCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity));
+		uploadPermits = new Semaphore(computeThreadCount + queueCapacity);
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(requestExecutor);
+		server.createContext("/cartoonize", new CartoonizeHandler());
+		server.createContext("/metrics", new MetricsHandler());
+	}
+
+	//a virtual thread per exchange on JVMs that have virtual threads, otherwise a cached thread pool. The
+	//exchanges mostly wait for the client and the compute threads
+	private static ExecutorService createRequestExecutor(){
+
+		try{
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}catch(ReflectiveOperationException ex){
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public void start(){
+		server.start();
+	}
+
+	//stops accepting requests, waits up to delaySeconds for the exchanges in progress and stops the threads. The
+	//pipeline isn't shut down
+	public void stop(int delaySeconds){
+
+		server.stop(delaySeconds);
+		computeExecutor.shutdownNow();
+		requestExecutor.shutdownNow();
+	}
+
+	//port the server listens on
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	//number of images waiting for a compute thread
+	public int getQueueDepth(){
+		return computeExecutor.getQueue().size();
+	}
+
+	//number of images being cartoonized
+	public int getActiveCount(){
+		return computeExecutor.getActiveCount();
+	}
+
+	//returns the metrics as a JSON object
+	public String getMetricsJson(){
+
+		long percentiles[] = latencies.getPercentiles(LATENCY_PERCENTILES);
+		StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{\"requests\":%d,\"completed\":%d,\"rejected\":%d,\"failed\":%d,\"queueDepth\":%d,\"queueCapacity\":%d,\"active\":%d,\"latencyMillis\":{",
+				requestCount.get(), latencies.getCount(), rejectedCount.get(), failedCount.get(), getQueueDepth(), queueCapacity, getActiveCount()));
+		for(int i = 0; i < percentiles.length; i++){
+			json.append(i > 0 ? "," : "").append(String.format(Locale.ROOT, "\"%s\":%.3f", LATENCY_PERCENTILE_NAMES[i], percentiles[i] / 1e6));
+		}
+		PipelineMetrics metrics = pipeline.getMetrics();
+		json.append(String.format(Locale.ROOT, "},\"filters\":{\"images\":%d,\"failures\":%d,\"segmentationMillis\":%.3f,\"filteringMillis\":%.3f}}",
+				metrics.getImageCount(), metrics.getFailedImageCount(), metrics.getSegmentationMillis(), metrics.getFilteringMillis()));
+		return json.toString();
+	}
+
+	//answers with a text message, every status but 200 counts as a rejected or failed request. The failures that
+	//throw an IOException are counted by the handler, unless they happen after a text message was sent
+	private void sendText(HttpExchange exchange, int status, String message) throws IOException{
+
+		if(status == 429){
+			rejectedCount.incrementAndGet();
+		}else if(status != 200){
+			failedCount.incrementAndGet();
+		}
+
+		byte body[] = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream output = exchange.getResponseBody();
+		output.write(body);
+		output.close();
+	}
+
+	//returns the request body, or null if it is larger than maxUploadBytes. Throws a NumberFormatException if the
+	//Content-Length header isn't a number
+	private byte[] readUpload(HttpExchange exchange) throws IOException{
+
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if(contentLength != null && Long.parseLong(contentLength) > maxUploadBytes){
+			return null;
+		}
+
+		InputStream input = exchange.getRequestBody();
+		ByteArrayOutputStream upload = new ByteArrayOutputStream();
+		byte buffer[] = new byte[65536];
+		int count;
+		while((count = input.read(buffer)) >= 0){
+			upload.write(buffer, 0, count);
+			if(upload.size() > maxUploadBytes){
+				return null;
+			}
+		}
+		return upload.toByteArray();
+	}
+
+	//value of a query parameter, or defaultValue if the query doesn't have it
+	private static String getQueryParameter(URI uri, String name, String defaultValue){
+
+		String query = uri.getQuery();
+		if(query != null){
+			for(String parameter : query.split("&")){
+				if(parameter.startsWith(name + "=")){
+					return parameter.substring(name.length() + 1);
+				}
+			}
+		}
+		return defaultValue;
+	}
+
+	//the image, or a TYPE_INT_RGB copy of it if the format can't store its type, e.g. JPEG images with alpha
+	private static BufferedImage getWritableImage(BufferedImage image, String format){
+
+		if(ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format).hasNext()){
+			return image;
+		}
+
+		BufferedImage rgbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = rgbImage.createGraphics();
+		graphics.drawImage(image, 0, 0, null);
+		graphics.dispose();
+		return rgbImage;
+	}
+
+	//thrown by CartoonizeTask for an upload of more than maxPixels pixels
+	private static class ImageTooLargeException extends IOException{
+
+		private static final long serialVersionUID = 1L;
+
+		ImageTooLargeException(String message){
+			super(message);
+		}
+	}
+
+	//decodes an upload, after checking the size of the image in its header
+	private BufferedImage decode(byte upload[]) throws IOException{
+
+		ImageInputStream inputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(upload));
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+			if(!readers.hasNext()){
+				throw new IOException("unsupported image format");
+			}
+
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(inputStream, true, true);
+				long pixelCount = (long)reader.getWidth(0) * reader.getHeight(0);
+				if(pixelCount > maxPixels){
+					throw new ImageTooLargeException("images are limited to " + maxPixels + " pixels, the upload has " + pixelCount);
+				}
+				return reader.read(0);
+			}finally{
+				reader.dispose();
+			}
+		}finally{
+			inputStream.close();
+		}
+	}
+
+	//decodes and cartoonizes an upload on a compute thread
+	private class CartoonizeTask implements Callable<BufferedImage>{
+
+		private final byte upload[];
+		private final String format;
+
+		CartoonizeTask(byte upload[], String format){
+			this.upload = upload;
+			this.format = format;
+		}
+
+		public BufferedImage call() throws IOException{
+
+			return getWritableImage(pipeline.cartoonize(decode(upload)), format);
+		}
+	}
+
+	private class CartoonizeHandler implements HttpHandler{
+
+		public void handle(HttpExchange exchange) throws IOException{
+
+			long startTime = System.nanoTime();
+			requestCount.incrementAndGet();
+
+			try{
+				if(!exchange.getRequestMethod().equals("POST")){
+					exchange.getResponseHeaders().set("Allow", "POST");
+					sendText(exchange, 405, "POST the image as the request body\n");
+					return;
+				}
+
+				String format = getQueryParameter(exchange.getRequestURI(), "format", "png");
+				Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+				if(!writers.hasNext()){
+					sendText(exchange, 400, "no image writer for format " + format + "\n");
+					return;
+				}
+				String mimeTypes[] = writers.next().getOriginatingProvider().getMIMETypes();
+
+				//the upload isn't even read if there is no room for it
+				if(!uploadPermits.tryAcquire()){
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendText(exchange, 429, "too many images waiting\n");
+					return;
+				}
+
+				try{
+					cartoonize(exchange, format, mimeTypes, startTime);
+				}finally{
+					uploadPermits.release();
+				}
+			}catch(IOException ex){
+				//sendText counted the responses other than 200 that were started
+				int status = exchange.getResponseCode();
+				if(status == -1 || status == 200){
+					failedCount.incrementAndGet();
+				}
+				throw ex;
+			}finally{
+				exchange.close();
+			}
+		}
+
+		//reads the upload, cartoonizes it on a compute thread and writes the result
+		private void cartoonize(HttpExchange exchange, String format, String mimeTypes[], long startTime) throws IOException{
+
+			byte upload[];
+			try{
+				upload = readUpload(exchange);
+			}catch(NumberFormatException ex){
+				sendText(exchange, 400, "malformed Content-Length\n");
+				return;
+			}
+			if(upload == null){
+				sendText(exchange, 413, "images are limited to " + maxUploadBytes + " bytes\n");
+				return;
+			}
+
+			Future<BufferedImage> result;
+			try{
+				result = computeExecutor.submit(new CartoonizeTask(upload, format));
+			}catch(RejectedExecutionException ex){
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				sendText(exchange, 429, "too many images waiting\n");
+				return;
+			}
+
+			BufferedImage image;
+			try{
+				image = result.get();
+			}catch(InterruptedException ex){
+				result.cancel(true);
+				Thread.currentThread().interrupt();
+				sendText(exchange, 503, "server is stopping\n");
+				return;
+			}catch(ExecutionException ex){
+				//undecodable uploads are the client's fault, anything else is the server's
+				if(ex.getCause() instanceof ImageTooLargeException){
+					sendText(exchange, 413, ex.getCause().getMessage() + "\n");
+				}else if(ex.getCause() instanceof IOException){
+					sendText(exchange, 400, ex.getCause().getMessage() + "\n");
+				}else{
+					sendText(exchange, 500, "cartoonization failed: " + ex.getCause() + "\n");
+				}
+				return;
+			}
+
+			//the encoded image is streamed to the client with chunked encoding
+			exchange.getResponseHeaders().set("Content-Type", mimeTypes != null && mimeTypes.length > 0 ? mimeTypes[0] : "application/octet-stream");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream output = exchange.getResponseBody();
+			ImageIO.write(image, format, output);
+			output.close();
+			latencies.record(System.nanoTime() - startTime);
+		}
+	}
+
+	private class MetricsHandler implements HttpHandler{
+
+		public void handle(HttpExchange exchange) throws IOException{
+
+			try{
+				byte body[] = (getMetricsJson() + "\n").getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream output = exchange.getResponseBody();
+				output.write(body);
+				output.close();
+			}finally{
+				exchange.close();
+			}
+		}
+	}
+
+	private static void printUsage(){
+		System.err.println("usage: CartoonizeServer [-port <port, 0 for any free port>] [-threads <n>] [-queue <images waiting for a thread>]");
+		System.err.println("                        [-max-upload <largest upload in megabytes>] [-max-megapixels <largest decoded image>]");
+		System.err.println("                        [-max-size <largest width or height, e.g. 1920>]");
+		System.err.println("                        [-config <properties file with the pipeline parameters, see CartoonPipeline.Builder>]");
+	}
+
+	public static void main(String[] args) throws Exception{
+
+		int port = 8080;
+		int computeThreadCount = Runtime.getRuntime().availableProcessors();
+		int queueCapacity = -1;
+		long maxUploadMegabytes = 64;
+		long maxMegapixels = 50;
+		//images are already processed in parallel, one per compute thread
+		CartoonPipeline.Builder pipelineBuilder = new CartoonPipeline.Builder().parallelism(1);
+
+		try{
+			for(int i = 0; i < args.length; i++){
+				if(args[i].equals("-port")){
+					port = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-threads")){
+					computeThreadCount = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-queue")){
+					queueCapacity = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-max-upload")){
+					maxUploadMegabytes = Long.parseLong(args[++i]);
+				}else if(args[i].equals("-max-megapixels")){
+					maxMegapixels = Long.parseLong(args[++i]);
+				}else if(args[i].equals("-max-size")){
+					pipelineBuilder.maxDimension(Integer.parseInt(args[++i]));
+				}else if(args[i].equals("-config")){
+					pipelineBuilder.properties(BatchCartoonizer.loadProperties(new File(args[++i])));
+				}else{
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		}catch(RuntimeException ex){
+			printUsage();
+			System.exit(2);
+		}
+
+		final CartoonPipeline pipeline;
+		final CartoonizeServer server;
+		try{
+			pipeline = pipelineBuilder.build();
+			//two images per compute thread keep the threads busy while the next uploads arrive
+			server = new CartoonizeServer(port, pipeline, computeThreadCount, queueCapacity > 0 ? queueCapacity : 2 * computeThreadCount,
+					maxUploadMegabytes * 1024 * 1024, maxMegapixels * 1000000);
+		}catch(IllegalArgumentException ex){
+			System.err.println(ex.getMessage());
+			printUsage();
+			System.exit(2);
+			return;
+		}
+
+		//the uploads and results are kept in memory, not in temporary files
+		ImageIO.setUseCache(false);
+		pipeline.getMetrics().register("server");
+
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				server.stop(1);
+				pipeline.shutdown();
+			}
+		});
+
+		server.start();
+		System.out.println("listening on http://localhost:" + server.getPort() + "/cartoonize");
+	}
+
+}
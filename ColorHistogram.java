@@ -0,0 +1,97 @@
+package source;
+
+import java.util.Arrays;
+
+//distinct RGB colors of an image and the number of pixels of each color. The colors are collected with an
+//open-addressing hash table from color to color index that uses linear probing; the alpha of the pixels is ignored.
+//A histogram can be built again for other pixels, it keeps its arrays as long as they are large enough.
+public class ColorHistogram {
+
+	//distinct colors in the order they were first seen, and their pixel counts. Only the first size elements
+	//are used
+	private int colors[] = new int[0];
+	private int counts[] = new int[0];
+	private int size;
+
+	//hash table, keys hold color + 1 so that 0 marks an empty slot
+	private int keys[] = new int[0];
+	private int values[] = new int[0];
+
+	//collects the distinct colors of the pixels and stores the index of each pixel's color in colorIndices.
+	//Returns false if the pixels have more than maxColors distinct colors
+	public boolean build(int pixels[], int colorIndices[], int maxColors){
+
+		//keep the table at most half full
+		int tableBits = 1;
+		while((1 << tableBits) < maxColors * 2){
+			tableBits++;
+		}
+
+		if(keys.length != 1 << tableBits){
+			keys = new int[1 << tableBits];
+			values = new int[1 << tableBits];
+		}else{
+			Arrays.fill(keys, 0);
+		}
+		if(colors.length < maxColors){
+			colors = new int[maxColors];
+			counts = new int[maxColors];
+		}
+
+		int shift = 32 - tableBits;
+		int mask = keys.length - 1;
+		size = 0;
+
+		for(int i = 0; i < pixels.length; i++){
+
+			int color = pixels[i] & 0xffffff;
+			int key = color + 1;
+
+			//Fibonacci hashing spreads neighboring colors over the table
+			int slot = (color * 0x9e3779b9) >>> shift;
+			while(keys[slot] != 0 && keys[slot] != key){
+				slot = (slot + 1) & mask;
+			}
+
+			int colorIndex;
+			if(keys[slot] == 0){
+				if(size == maxColors){
+					return false;
+				}
+				colorIndex = size++;
+				keys[slot] = key;
+				values[slot] = colorIndex;
+				colors[colorIndex] = color;
+				counts[colorIndex] = 0;
+			}else{
+				colorIndex = values[slot];
+			}
+
+			counts[colorIndex]++;
+			colorIndices[i] = colorIndex;
+		}
+
+		return true;
+	}
+
+	//number of distinct colors
+	public int size(){
+		return size;
+	}
+
+	//distinct colors, the array may be longer than size()
+	public int[] getColors(){
+		return colors;
+	}
+
+	//pixel counts of the distinct colors, the array may be longer than size()
+	public int[] getCounts(){
+		return counts;
+	}
+
+	//bytes held by the arrays of the histogram
+	public long getArrayBytes(){
+		return 4L * (colors.length + counts.length + keys.length + values.length);
+	}
+
+}
@@ -0,0 +1,84 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+
+//cache of decoded images as raw pixel files, so that jobs running over the same images again read the pixels
+//instead of decoding them. An entry is named after the path, the size and the modification time of the image
+//file and the max dimension it was decoded to, so an image that was changed is decoded again. Entries are
+//written to a temporary file and then renamed, so concurrent readers never see a partly written entry. The
+//cache directory is never cleaned up by the cache.
+public class DecodeCache {
+
+	private final File directory;
+
+	public DecodeCache(File directory) throws IOException{
+
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("cannot create decode cache directory " + directory);
+		}
+		this.directory = directory;
+	}
+
+	//returns the decoded image, from the cache if it has an entry for the image file
+	public BufferedImage read(File imageFile) throws IOException{
+		return read(imageFile, 0);
+	}
+
+	//returns the image decoded with SubsampledDecoder so that its larger side is at most maxDimension, or in full
+	//size if maxDimension is 0
+	public BufferedImage read(File imageFile, int maxDimension) throws IOException{
+
+		File cacheFile = getCacheFile(imageFile, maxDimension);
+		if(cacheFile.isFile()){
+			try{
+				return RawPixelFile.read(cacheFile);
+			}catch(IOException ex){
+				//a damaged entry is replaced below
+			}
+		}
+
+		BufferedImage image = maxDimension > 0 ? SubsampledDecoder.read(imageFile, maxDimension) : ImageIO.read(imageFile);
+		if(image == null){
+			throw new IOException("unsupported image format");
+		}
+
+		//the image is decoded, so failing to cache it doesn't fail the read
+		File temporaryFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		try{
+			RawPixelFile.write(image, temporaryFile);
+			Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException ex){
+			temporaryFile.delete();
+		}
+		return image;
+	}
+
+	//file of the cache entry of an image file
+	File getCacheFile(File imageFile, int maxDimension){
+
+		String key = imageFile.getAbsolutePath() + "\n" + imageFile.length() + "\n" + imageFile.lastModified() + "\n" + maxDimension;
+		try{
+			byte digest[] = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(FilenameUtils.getBaseName(imageFile.getName())).append('-');
+			for(int i = 0; i < 8; i++){
+				name.append(String.format("%02x", digest[i] & 0xff));
+			}
+			return new File(directory, name.append('.').append(RawPixelFile.EXTENSION).toString());
+		}catch(NoSuchAlgorithmException ex){
+			//every Java platform has SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
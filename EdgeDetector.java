@@ -0,0 +1,29 @@
+package source;
+
+//operators the edge stage can detect edges with
+public enum EdgeDetector {
+
+	//Sobel gradient magnitude above the threshold, computed row by row as the median filtered rows are produced
+	SOBEL(1140),
+
+	//Scharr gradient magnitude above the threshold, which responds more evenly to edges of every direction
+	SCHARR(1202),
+
+	//Canny: the Sobel gradient thinned to one pixel wide ridges, and hysteresis that keeps the pixels above the
+	//threshold and the pixels above half the threshold connected to them, giving thin and unbroken outlines
+	CANNY(1140);
+
+	private final int maxMagnitude;
+
+	private EdgeDetector(int maxMagnitude){
+		this.maxMagnitude = maxMagnitude;
+	}
+
+	//largest gradient magnitude of 8 bit greyscale, a threshold at or above it finds no edges. The magnitude is
+	//convex in the pixels of the window, so it is largest for a window of 0 and 255 pixels; the values are the
+	//largest over those windows
+	public int getMaxMagnitude(){
+		return maxMagnitude;
+	}
+
+}
@@ -0,0 +1,246 @@
+package source;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+//edge detection with a fixed threshold. The stage is thread-safe. With the Sobel detector it consumes the rows of
+//a median filter as they are produced, so the median filtered image is never stored as a whole. The other
+//detectors need the gradient of the whole image: they store the median filtered image, compute its gradient
+//magnitudes and threshold them, the same as computeGradientMagnitudes followed by applyThreshold.
+public class EdgeStage {
+
+	//magnitude of the pixels the edge detection copies for every threshold, the border rows and columns
+	static final int BORDER_MAGNITUDE = Integer.MIN_VALUE;
+
+	//number of median filtered rows between two progress reports
+	private static final int PROGRESS_ROWS = 16;
+
+	private final int threshold;
+	private final EdgeDetector detector;
+	private final PixelKernels kernels;
+	//pool the row buffers are taken from, or null
+	private final BufferPool bufferPool;
+
+	public EdgeStage(int threshold, PixelKernels kernels, BufferPool bufferPool){
+		this(threshold, EdgeDetector.SOBEL, kernels, bufferPool);
+	}
+
+	public EdgeStage(int threshold, EdgeDetector detector, PixelKernels kernels, BufferPool bufferPool){
+
+		this.threshold = threshold;
+		this.detector = detector;
+		this.kernels = kernels;
+		this.bufferPool = bufferPool;
+	}
+
+	public int getThreshold(){
+		return threshold;
+	}
+
+	public EdgeDetector getDetector(){
+		return detector;
+	}
+
+	//applies the median filter and then the edge detection, and writes the result into result
+	public void filter(MedianRowFilter medianFilter, int imageWidth, int imageHeight, int result[]){
+		filter(medianFilter, imageWidth, imageHeight, result, null);
+	}
+
+	//filters like filter(medianFilter, imageWidth, imageHeight, result) and reports the rows to the listener, which
+	//may be null
+	public void filter(MedianRowFilter medianFilter, int imageWidth, int imageHeight, int result[], ProgressListener progressListener){
+
+		if(detector == EdgeDetector.SOBEL){
+			MedianEdgeFilter filter = new MedianEdgeFilter(medianFilter, imageWidth, imageHeight, threshold, kernels, bufferPool);
+			filter.setProgressListener(progressListener);
+			filter.filter(result);
+			return;
+		}
+
+		int pixelCount = imageWidth * imageHeight;
+		int medianPixels[] = acquire(pixelCount);
+		int magnitudes[] = acquire(pixelCount);
+		try{
+			applyMedianFilter(medianFilter, imageWidth, imageHeight, medianPixels, progressListener);
+			computeGradientMagnitudes(medianPixels, imageWidth, imageHeight, magnitudes);
+			applyThreshold(medianPixels, magnitudes, imageWidth, result);
+		}finally{
+			release(medianPixels);
+			release(magnitudes);
+		}
+	}
+
+	//median filters a whole image into result, the rows the window doesn't fit around are black. The rows are
+	//reported to the listener, which may be null
+	static void applyMedianFilter(MedianRowFilter medianFilter, int imageWidth, int imageHeight, int result[], ProgressListener progressListener){
+
+		int firstMedianRow = medianFilter.getWindowHeight() / 2;
+		int lastMedianRow = imageHeight - medianFilter.getWindowHeight() / 2;
+
+		for(int countery = 0; countery < imageHeight; countery++){
+
+			if(progressListener != null && countery % PROGRESS_ROWS == 0){
+				if(progressListener.isCancelled()){
+					throw new CancellationException("filtering cancelled");
+				}
+				progressListener.progress(ProgressListener.Stage.FILTERING, countery, imageHeight);
+			}
+
+			if(countery >= firstMedianRow && countery < lastMedianRow){
+				medianFilter.filterRow(countery, result, countery * imageWidth);
+			}else{
+				Arrays.fill(result, countery * imageWidth, (countery + 1) * imageWidth, 0);
+			}
+		}
+	}
+
+	//stores the gradient magnitude of every pixel of an image in magnitudes. The magnitudes don't depend on the
+	//threshold, so they can be kept and thresholded again with applyThreshold. For Canny these are the magnitudes
+	//after non-maximum suppression, only the hysteresis depends on the threshold
+	public void computeGradientMagnitudes(int pixels[], int imageWidth, int imageHeight, int magnitudes[]){
+
+		int pixelCount = imageWidth * imageHeight;
+		int greyscale[] = acquire(pixelCount);
+		kernels.convertToGreyscale(pixels, 0, greyscale, 0, pixelCount);
+
+		for(int countery = 0; countery < imageHeight; countery++){
+
+			int rowOffset = countery * imageWidth;
+			if(countery == 0 || countery == imageHeight - 1){
+				Arrays.fill(magnitudes, rowOffset, rowOffset + imageWidth, BORDER_MAGNITUDE);
+				continue;
+			}
+
+			magnitudes[rowOffset] = BORDER_MAGNITUDE;
+			if(detector == EdgeDetector.SCHARR){
+				kernels.computeScharrMagnitudes(greyscale, rowOffset - imageWidth, rowOffset, rowOffset + imageWidth, magnitudes, rowOffset, imageWidth);
+			}else{
+				kernels.computeGradientMagnitudes(greyscale, rowOffset - imageWidth, rowOffset, rowOffset + imageWidth, magnitudes, rowOffset, imageWidth);
+			}
+			magnitudes[rowOffset + imageWidth - 1] = BORDER_MAGNITUDE;
+		}
+
+		if(detector == EdgeDetector.CANNY){
+			suppressNonMaxima(greyscale, imageWidth, imageHeight, magnitudes);
+		}
+
+		release(greyscale);
+	}
+
+	//detects the edges from the magnitudes computed by computeGradientMagnitudes: pixels with a magnitude above the
+	//threshold are black, the others are copied from pixels. The result is the same as filtering the pixels
+	public void applyThreshold(int pixels[], int magnitudes[], int imageWidth, int result[]){
+
+		if(detector == EdgeDetector.CANNY){
+			traceEdges(pixels, magnitudes, imageWidth, result);
+			return;
+		}
+
+		for(int i = 0; i < pixels.length; i++){
+			result[i] = magnitudes[i] > threshold ? 0xff000000 : pixels[i];
+		}
+	}
+
+	//thins the edges to ridges one pixel wide: a magnitude is set to 0 unless it is the largest of the pixel and
+	//its two neighbours along the gradient direction, which is rounded to a multiple of 45 degrees. Of two equal
+	//neighbouring magnitudes the one farther along the gradient stays
+	private void suppressNonMaxima(int greyscale[], int imageWidth, int imageHeight, int magnitudes[]){
+
+		int pixelCount = imageWidth * imageHeight;
+		int originalMagnitudes[] = acquire(pixelCount);
+		System.arraycopy(magnitudes, 0, originalMagnitudes, 0, pixelCount);
+
+		for(int countery = 1; countery < imageHeight - 1; countery++){
+			for(int counterx = 1; counterx < imageWidth - 1; counterx++){
+
+				int middle = countery * imageWidth + counterx;
+				int above = middle - imageWidth;
+				int below = middle + imageWidth;
+
+				//gradient towards the right and towards the bottom
+				int gradientX = (greyscale[above + 1] + 2 * greyscale[middle + 1] + greyscale[below + 1]) - (greyscale[above - 1] + 2 * greyscale[middle - 1] + greyscale[below - 1]);
+				int gradientY = (greyscale[below - 1] + 2 * greyscale[below] + greyscale[below + 1]) - (greyscale[above - 1] + 2 * greyscale[above] + greyscale[above + 1]);
+				int absoluteX = Math.abs(gradientX);
+				int absoluteY = Math.abs(gradientY);
+
+				//index step to the neighbour along the gradient, tan(22.5 degrees) is about 12 / 29
+				int step;
+				if(29 * absoluteY <= 12 * absoluteX){
+					step = 1;
+				}else if(29 * absoluteX <= 12 * absoluteY){
+					step = imageWidth;
+				}else if((gradientX > 0) == (gradientY > 0)){
+					step = imageWidth + 1;
+				}else{
+					step = imageWidth - 1;
+				}
+
+				int magnitude = originalMagnitudes[middle];
+				if(magnitude < originalMagnitudes[middle - step] || magnitude <= originalMagnitudes[middle + step]){
+					magnitudes[middle] = 0;
+				}
+			}
+		}
+
+		release(originalMagnitudes);
+	}
+
+	//hysteresis of Canny: pixels with a magnitude above the threshold are edges, and so are the pixels above half
+	//the threshold that are connected to an edge through such pixels, including diagonally
+	private void traceEdges(int pixels[], int magnitudes[], int imageWidth, int result[]){
+
+		int pixelCount = pixels.length;
+		int lowThreshold = threshold / 2;
+		//pixels found to be edges whose neighbours haven't been visited yet, and which pixels are edges
+		int stack[] = acquire(pixelCount);
+		int edges[] = acquire(pixelCount);
+		Arrays.fill(edges, 0);
+
+		try{
+			for(int i = 0; i < pixelCount; i++){
+
+				if(magnitudes[i] <= threshold || edges[i] != 0){
+					continue;
+				}
+
+				edges[i] = 1;
+				int stackSize = 0;
+				stack[stackSize++] = i;
+				while(stackSize > 0){
+
+					//the border pixels are never edges, so the neighbours of an edge are inside the image
+					int current = stack[--stackSize];
+					for(int neighboury = -imageWidth; neighboury <= imageWidth; neighboury += imageWidth){
+						for(int neighbourx = -1; neighbourx <= 1; neighbourx++){
+
+							int neighbour = current + neighboury + neighbourx;
+							if(edges[neighbour] == 0 && magnitudes[neighbour] > lowThreshold){
+								edges[neighbour] = 1;
+								stack[stackSize++] = neighbour;
+							}
+						}
+					}
+				}
+			}
+
+			for(int i = 0; i < pixelCount; i++){
+				result[i] = edges[i] != 0 ? 0xff000000 : pixels[i];
+			}
+		}finally{
+			release(stack);
+			release(edges);
+		}
+	}
+
+	private int[] acquire(int length){
+		return bufferPool == null ? new int[length] : bufferPool.acquire(length);
+	}
+
+	private void release(int buffer[]){
+
+		if(bufferPool != null){
+			bufferPool.release(buffer);
+		}
+	}
+
+}
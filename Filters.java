@@ -1,149 +1,259 @@
 package source;
 
-import java.awt.Color;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class Filters {
 	
+	//parameters of cartoonizeImage
+	static final int SEGMENTATION_CLUSTER_COUNT = 32;
+	static final int SEGMENTATION_LOOP_COUNT = 10;
+	static final int MEDIAN_FILTER_WINDOW_WIDTH = 9;
+	static final int MEDIAN_FILTER_WINDOW_HEIGHT = 9;
+	static final int EDGE_DETECTION_THRESHOLD = 100;
+	
+	//pool running the parallel parts of the filters, null if everything runs on the calling thread
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	
+	//algorithm used by the median filter
+	private MedianFilterMode medianFilterMode = MedianFilterMode.SELECTOR;
+	
+	//greyscale, edge and nearest center loops, vectorized if the vector API is available
+	private PixelKernels kernels = PixelKernels.getInstance();
+	
+	//seed of the k-means++ initialization, the same seed gives the same segmentation
+	private long segmentationSeed = 0;
+	//fraction of the pixels the cluster centers are fitted on, and whether they are picked at random or strided
+	private double segmentationSampleFraction = 1;
+	private boolean segmentationRandomSampling = false;
+	//k-means stops once no center moves farther than this distance
+	private double segmentationConvergenceThreshold = 0;
+	
+	//time and allocations of cartoonizeImage
+	private final PipelineMetrics metrics = new PipelineMetrics();
+	
+	//sets the number of threads used by the filters. 1 runs everything on the calling thread
+	public void setParallelism(int parallelism){
+		
+		if(parallelism < 1){
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		
+		shutdown();
+		pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+	}
+	
+	//shuts down the threads created by setParallelism, the filters run on the calling thread afterwards
+	public void shutdown(){
+		
+		if(pool != null && pool != ForkJoinPool.commonPool()){
+			pool.shutdown();
+		}
+		pool = null;
+	}
+	
+	public void setMedianFilterMode(MedianFilterMode medianFilterMode){
+		this.medianFilterMode = medianFilterMode;
+	}
+	
+	//uses the vector kernels if they are available, or the scalar kernels. The results are the same
+	public void setVectorKernelsEnabled(boolean vectorKernelsEnabled){
+		this.kernels = vectorKernelsEnabled ? PixelKernels.getInstance() : PixelKernels.getScalarInstance();
+	}
+	
+	public void setSegmentationSeed(long segmentationSeed){
+		this.segmentationSeed = segmentationSeed;
+	}
+	
+	//fits the cluster centers on the given fraction of the pixels, for example 0.02, and then assigns all pixels
+	//to the fitted centers in a single pass. The sample is strided unless randomSampling is true
+	public void setSegmentationSampling(double sampleFraction, boolean randomSampling){
+		
+		if(sampleFraction <= 0 || sampleFraction > 1){
+			throw new IllegalArgumentException("sample fraction must be in (0, 1]: " + sampleFraction);
+		}
+		
+		this.segmentationSampleFraction = sampleFraction;
+		this.segmentationRandomSampling = randomSampling;
+	}
+	
+	public void setSegmentationConvergenceThreshold(double convergenceThreshold){
+		this.segmentationConvergenceThreshold = convergenceThreshold;
+	}
+	
 	//cartoonizes image
 	public BufferedImage cartoonizeImage(BufferedImage image){
+		return cartoonizeImage(image, null);
+	}
+	
+	//cartoonizes image and reports the progress of the segmentation and the filtering to the listener, which may
+	//be null. If the listener cancels, a CancellationException is thrown
+	public BufferedImage cartoonizeImage(BufferedImage image, ProgressListener progressListener){
+		
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		ImageMetrics imageMetrics = new ImageMetrics(imageWidth, imageHeight);
+		
+		try{
+			imageMetrics.startStage();
+			int pixels[] = RasterPixels.getPixels(image);
+			int labels[] = new int[pixels.length];
+			KMeansSegmenter segmenter = createSegmentationStage(SEGMENTATION_CLUSTER_COUNT, SEGMENTATION_LOOP_COUNT).segment(pixels, labels, progressListener);
+			imageMetrics.recordSegmentation(segmenter);
+			imageMetrics.endStage(ProgressListener.Stage.SEGMENTATION);
+			
+			imageMetrics.startStage();
+			int resultPixels[] = filterSegmentedPixels(labels, imageWidth, imageHeight, segmenter, progressListener);
+			BufferedImage result = RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+			imageMetrics.endStage(ProgressListener.Stage.FILTERING);
+			
+			metrics.record(imageMetrics);
+			return result;
+		}catch(RuntimeException ex){
+			metrics.recordFailure();
+			throw ex;
+		}
+	}
+	
+	//cartoonizes image using the given cluster centers instead of clustering the image. Every pixel is assigned to
+	//its nearest center and the centers aren't moved
+	public BufferedImage cartoonizeImage(BufferedImage image, int centersRed[], int centersGreen[], int centersBlue[]){
 		
-		int segmentationClusterCount = 32;
-		int segmentationLoopCount = 10;
-		int medianFilterWindowWidth = 9;
-		int medianFilterWindowHeight = 9;
-		int edgeDetectionThreshold = 100;
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
 		
-		BufferedImage segmentedImage = null;
-		BufferedImage medianFilteredImage = null;
-		BufferedImage edgeDetectedImage = null;
+		int pixels[] = RasterPixels.getPixels(image);
+		int labels[] = new int[pixels.length];
+		KMeansSegmenter segmenter = createSegmentationStage(centersRed.length, 0).assign(pixels, labels, centersRed, centersGreen, centersBlue);
+		
+		int resultPixels[] = filterSegmentedPixels(labels, imageWidth, imageHeight, segmenter);
+		
+		return RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+	}
+	
+	//applies the median filter and edge detection to a segmented image given by the cluster index of every pixel
+	int[] filterSegmentedPixels(int labels[], int imageWidth, int imageHeight, KMeansSegmenter segmenter){
+		return filterSegmentedPixels(labels, imageWidth, imageHeight, segmenter, null);
+	}
+	
+	private int[] filterSegmentedPixels(int labels[], int imageWidth, int imageHeight, KMeansSegmenter segmenter, ProgressListener progressListener){
 		
-		segmentedImage = applyImageSegmentation(image, segmentationClusterCount, segmentationLoopCount);
-		medianFilteredImage = applyMedianFilter(segmentedImage, medianFilterWindowWidth, medianFilterWindowHeight);				
-		edgeDetectedImage = applyEdgeDetection(medianFilteredImage, edgeDetectionThreshold);		
+		MedianRowFilter medianFilter = new MedianStage(MEDIAN_FILTER_WINDOW_WIDTH, MEDIAN_FILTER_WINDOW_HEIGHT, null).createFilter(labels, imageWidth, imageHeight, segmenter);
 		
-		return edgeDetectedImage;
+		int resultPixels[] = new int[imageWidth * imageHeight];
+		new EdgeStage(EDGE_DETECTION_THRESHOLD, kernels, null).filter(medianFilter, imageWidth, imageHeight, resultPixels, progressListener);
+		return resultPixels;
 	}
 	
 	//applies median filter
-	private BufferedImage applyMedianFilter(BufferedImage image, int windowWidth, int windowHeight){
+	BufferedImage applyMedianFilter(BufferedImage image, int windowWidth, int windowHeight){
 		
 		int imageWidth = image.getWidth();
 		int imageHeight = image.getHeight();
 		int windowMiddle = windowWidth * windowHeight / 2;
 		
-		BufferedImage resultImage = new BufferedImage(imageWidth, imageHeight, image.getType());
+		int pixels[] = RasterPixels.getPixels(image);
+		
+		if(medianFilterMode == MedianFilterMode.HISTOGRAM){
+			int resultPixels[] = new HistogramMedianFilter(pixels, imageWidth, imageHeight, windowWidth, windowHeight).filter();
+			return RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+		}
+		
+		int resultPixels[] = new int[pixels.length];
 		
 		QuickSelect quickSelect = new QuickSelect();
+		MedianSelector medianSelector = new MedianSelector();
+		boolean useSelector = medianFilterMode == MedianFilterMode.SELECTOR;
+		int windowArea = windowWidth * windowHeight;
 		
 		//median filter algorithm. Reference: http://en.wikipedia.org/wiki/Median_filter
 		
+		int colorArrayRed[] = new int[windowWidth * windowHeight];
+		int colorArrayGreen[] = new int[windowWidth * windowHeight];
+		int colorArrayBlue[] = new int[windowWidth * windowHeight];
+		
 		int edgex = windowWidth / 2;
 		int edgey = windowHeight / 2;		
-		for(int counterx = edgex; counterx < imageWidth - edgex; counterx++){
-			for(int countery = edgey; countery < imageHeight - edgey; countery++){
+		for(int countery = edgey; countery < imageHeight - edgey; countery++){
+			for(int counterx = edgex; counterx < imageWidth - edgex; counterx++){
 				
-				int colorArrayRed[] = new int[windowWidth * windowHeight];
-				int colorArrayGreen[] = new int[windowWidth * windowHeight];
-				int colorArrayBlue[] = new int[windowWidth * windowHeight];
-				for(int windowx = 0; windowx < windowWidth; windowx++){
-					for(int windowy = 0; windowy < windowHeight; windowy++){
-						Color currentPixel = new Color(image.getRGB(counterx + windowx - edgex, countery + windowy - edgey));
-						colorArrayRed[windowy * windowWidth + windowx] = currentPixel.getRed();
-						colorArrayGreen[windowy * windowWidth + windowx] = currentPixel.getGreen();
-						colorArrayBlue[windowy * windowWidth + windowx] = currentPixel.getBlue();
+				for(int windowy = 0; windowy < windowHeight; windowy++){
+					int rowOffset = (countery + windowy - edgey) * imageWidth + counterx - edgex;
+					for(int windowx = 0; windowx < windowWidth; windowx++){
+						int currentPixel = pixels[rowOffset + windowx];
+						colorArrayRed[windowy * windowWidth + windowx] = (currentPixel >> 16) & 0xff;
+						colorArrayGreen[windowy * windowWidth + windowx] = (currentPixel >> 8) & 0xff;
+						colorArrayBlue[windowy * windowWidth + windowx] = currentPixel & 0xff;
 					}				
 				}
 				
-				int medianRed = quickSelect.select(colorArrayRed, windowMiddle);
-				int medianGreen = quickSelect.select(colorArrayGreen, windowMiddle);
-				int medianBlue = quickSelect.select(colorArrayBlue, windowMiddle);
-				int medianARGB = new Color(medianRed, medianGreen, medianBlue, 255).getRGB();
+				int medianRed, medianGreen, medianBlue;
+				if(useSelector){
+					medianRed = medianSelector.median(colorArrayRed, windowArea);
+					medianGreen = medianSelector.median(colorArrayGreen, windowArea);
+					medianBlue = medianSelector.median(colorArrayBlue, windowArea);
+				}else{
+					medianRed = quickSelect.select(colorArrayRed, windowMiddle);
+					medianGreen = quickSelect.select(colorArrayGreen, windowMiddle);
+					medianBlue = quickSelect.select(colorArrayBlue, windowMiddle);
+				}
 				
-				resultImage.setRGB(counterx, countery, medianARGB);
+				resultPixels[countery * imageWidth + counterx] = 0xff000000 | (medianRed << 16) | (medianGreen << 8) | medianBlue;
 			}
 		}
 		
-		return resultImage;
+		return RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
 	}
 
 	// applies edge detection
-	private BufferedImage applyEdgeDetection(BufferedImage image, int threshold) {
+	BufferedImage applyEdgeDetection(BufferedImage image, int threshold) {
 
 		int imageWidth = image.getWidth();
 		int imageHeight = image.getHeight();
 
+		int pixels[] = RasterPixels.getPixels(image);
+		int resultPixels[] = applyEdgeDetection(pixels, imageWidth, imageHeight, threshold);
+
 		// result image that will be returned
-		BufferedImage resultImage = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+		return RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+	}
+
+	// applies edge detection to the packed pixels of an image
+	int[] applyEdgeDetection(int pixels[], int imageWidth, int imageHeight, int threshold) {
+
+		// result pixels that will be returned
+		int resultPixels[] = new int[pixels.length];
 
 		// it's unnecessary to apply k means clustering to color image
-		int greyscaleimage[] = convertImageToGreyscale(image);
+		int greyscaleimage[] = convertImageToGreyscale(pixels, imageWidth, imageHeight);
 
 		// use Sobel kernel edge detecion technique:
 		// http://dasl.mem.drexel.edu/alumni/bGreen/www.pages.drexel.edu/_weg22/edge.html
 		
-		int SUM = 0;
-
-		// 3x3 GX Sobel mask
-		int GX[][] = new int[3][3];
-		// 3x3 GY Sobel mask
-		int GY[][] = new int[3][3];
-
-		GX[0][0] = -1; GX[0][1] = 0; GX[0][2] = 1;
-		GX[1][0] = -2; GX[1][1] = 0; GX[1][2] = 2;
-		GX[2][0] = -1; GX[2][1] = 0; GX[2][2] = 1;
-
-		GY[0][0] = 1; GY[0][1] = 2; GY[0][2] = 1;
-		GY[1][0] = 0; GY[1][1] = 0; GY[1][2] = 0;
-		GY[2][0] = -1; GY[2][1] = -2; GY[2][2] = -1;
-
 		for (int countery = 0; countery < imageHeight; countery++) {
-			for (int counterx = 0; counterx < imageWidth; counterx++) {
-
-				int sumX = 0;
-				int sumY = 0;
-
-				// image boundries
-				if (countery == 0 || countery == imageHeight - 1) {
-					SUM = 0;
-				} else if (counterx == 0 || counterx == imageWidth - 1) {
-					SUM = 0;
-				} else {
-
-					// X gardient approximation
-					for (int i = -1; i <= 1; i++) {
-						for (int j = -1; j <= 1; j++) {
-							sumX += greyscaleimage[counterx + i + (countery + j) * imageWidth] * GX[i + 1][j + 1];
-						}
-					}
-
-					// Y gradient approximation
-					for (int i = -1; i <= 1; i++) {
-						for (int j = -1; j <= 1; j++) {
-							sumY += greyscaleimage[counterx + i + (countery + j) * imageWidth] * GY[i + 1][j + 1];
-						}
-					}
-
-					// gradient magnitude
-					SUM = (int) Math.sqrt(Math.pow(sumX, 2) + Math.pow(sumY, 2));
-
-				}
-
-				// if current pixel is an edge set this pixel to black,
-				// otherwise set this pixel to current pixel of the original
-				// image
-				if (SUM > threshold) {
-					resultImage.setRGB(counterx, countery, new Color(0, 0, 0, 255).getRGB());
-				} else {
-					resultImage.setRGB(counterx, countery, image.getRGB(counterx, countery));
+			
+			int rowOffset = countery * imageWidth;
+			
+			// image boundries have a gradient magnitude of 0
+			if (countery == 0 || countery == imageHeight - 1) {
+				for (int counterx = 0; counterx < imageWidth; counterx++) {
+					resultPixels[rowOffset + counterx] = 0 > threshold ? 0xff000000 : pixels[rowOffset + counterx];
 				}
-
+				continue;
+			}
+			
+			resultPixels[rowOffset] = 0 > threshold ? 0xff000000 : pixels[rowOffset];
+			if (imageWidth > 1) {
+				resultPixels[rowOffset + imageWidth - 1] = 0 > threshold ? 0xff000000 : pixels[rowOffset + imageWidth - 1];
 			}
+			
+			// if current pixel is an edge set this pixel to black,
+			// otherwise set this pixel to current pixel of the original
+			// image
+			kernels.detectEdges(greyscaleimage, rowOffset - imageWidth, rowOffset, rowOffset + imageWidth, pixels, rowOffset, resultPixels, rowOffset, imageWidth, threshold);
 		}
 
-		return resultImage;
+		return resultPixels;
 	}
 	
 	//this method applies image segmentation using k-means clustering algorithm
@@ -152,231 +262,71 @@ public class Filters {
 		int imageWidth = image.getWidth();
 		int imageHeight = image.getHeight();
 		
-		//result image that will be returned
-		BufferedImage resultImage = new BufferedImage(imageWidth, imageHeight, image.getType());
-		
-		//color components of cluster centers
-		int clusterCentersRed[] = new int[k];
-		int clusterCentersGreen[] = new int[k];
-		int clusterCentersBlue[] = new int[k];
-		
-		//clusters holding coordinates of image pixels
-		ArrayList<ArrayList<Point>> clusters = new ArrayList<ArrayList<Point>>(k);
-		for(int i = 0; i < k; i++){
-			clusters.add(new ArrayList<Point>());
-		}
-		
-		//k-means clustering algorithm. Reference: http://en.wikipedia.org/wiki/Image_segmentation#Clustering_methods
-		
-		//initialize cluster centers randomly
-		for(int i = 0; i < k; i++){
-			clusterCentersRed[i] = (int)(Math.random() * 256);
-			clusterCentersGreen[i] = (int)(Math.random() * 256);
-			clusterCentersBlue[i] = (int)(Math.random() * 256);
-		}
-		
-		//populate the clusters at the beginning so that following iterations will get elements from clusters instead of the image
-		for(int i = 0; i < imageHeight; i++){
-			for(int j = 0; j < imageWidth; j++){
-				
-				int currentClusterCenterIndex = 0;
-				
-				Color currentPixel = new Color(image.getRGB(j, i));
-				
-				int currentPixelRed = currentPixel.getRed();
-				int currentPixelGreen = currentPixel.getGreen();
-				int currentPixelBlue = currentPixel.getBlue();
-				
-				int currentClusterCenterRed = clusterCentersRed[currentClusterCenterIndex];
-				int currentClusterCenterGreen = clusterCentersGreen[currentClusterCenterIndex];
-				int currentClusterCenterBlue = clusterCentersBlue[currentClusterCenterIndex];
-				
-				//index of the cluster center that has the smallest Euclidean distance to the current pixel
-				int smallestEuclideanDistanceClusterCenterIndex = currentClusterCenterIndex;
-				//holds smallest Euclidean distance between currentPixel and the cluster centers
-				double smallestEuclideanDistance = Math.sqrt(Math.pow(currentPixelRed - currentClusterCenterRed, 2) + Math.pow(currentPixelGreen - currentClusterCenterGreen, 2)
-						+ Math.pow(currentPixelBlue - currentClusterCenterBlue, 2));
-				
-				//find the cluster center that has the smallest distance to the current pixel
-				currentClusterCenterIndex++;				
-				for(; currentClusterCenterIndex < k; currentClusterCenterIndex++){					
-					
-					currentClusterCenterRed = clusterCentersRed[currentClusterCenterIndex];
-					currentClusterCenterGreen = clusterCentersGreen[currentClusterCenterIndex];
-					currentClusterCenterBlue = clusterCentersBlue[currentClusterCenterIndex];					
-					
-					double currentEuclideanDistance = Math.sqrt(Math.pow(currentPixelRed - currentClusterCenterRed, 2) + Math.pow(currentPixelGreen - currentClusterCenterGreen, 2)
-							+ Math.pow(currentPixelBlue - currentClusterCenterBlue, 2));
-					
-					if(currentEuclideanDistance < smallestEuclideanDistance){
-						smallestEuclideanDistance = currentEuclideanDistance;
-						smallestEuclideanDistanceClusterCenterIndex = currentClusterCenterIndex;
-					}
-				}
-				
-				//assign current pixel to the cluster whose center has the smallest distance to the pixel
-				clusters.get(smallestEuclideanDistanceClusterCenterIndex).add(new Point(j, i));
-			}		
-		}
-		
-		//compute cluster centers
-		for(int i = 0; i < k; i++){
-			
-			int sumOfReds = 0;
-			int sumOfGreens = 0;
-			int sumOfBlues = 0;
-			
-			ArrayList<Point> currentCluster = clusters.get(i);
-			for(int j = 0; j < currentCluster.size(); j++){
-				
-				Point currentPixelCoords = currentCluster.get(j);
-				Color currentColor = new Color(image.getRGB(currentPixelCoords.x, currentPixelCoords.y));
-				
-				sumOfReds += currentColor.getRed();
-				sumOfGreens += currentColor.getGreen();
-				sumOfBlues += currentColor.getBlue();
-			}
-			
-			if(currentCluster.size() != 0){
-				clusterCentersRed[i] = sumOfReds / currentCluster.size();
-				clusterCentersGreen[i] = sumOfGreens / currentCluster.size();
-				clusterCentersBlue[i] = sumOfBlues / currentCluster.size();
-			}
-		}
-		
-		//repeat until no element changed its cluster
-		int loopCount = 0;
-		while(loopCount < loopLimit){
-			
-			//reset elementChanged so that we can understand if any element changed its cluster
-			boolean elementChanged = false;
-			
-			//assign pixels to clusters using Euclidean distance
-			for(int i = 0; i < k; i++){				
-				
-				ArrayList<Point> currentCluster = clusters.get(i);				 
-				for(int j = 0; j < currentCluster.size(); j++){
-					
-					int tempClusterCenterIndex = 0;
-					
-					Color currentPixel = new Color(image.getRGB(currentCluster.get(j).x, currentCluster.get(j).y));				
-					int currentPixelRed = currentPixel.getRed();
-					int currentPixelGreen = currentPixel.getGreen();
-					int currentPixelBlue = currentPixel.getBlue();
-					
-					int tempClusterCenterRed = clusterCentersRed[tempClusterCenterIndex];
-					int tempClusterCenterGreen = clusterCentersGreen[tempClusterCenterIndex];
-					int tempClusterCenterBlue = clusterCentersBlue[tempClusterCenterIndex];
-					
-					//index of the cluster center that has the smallest Euclidean distance to the current pixel
-					int smallestEuclideanDistanceClusterCenterIndex = tempClusterCenterIndex;
-					//holds smallest Euclidean distance between currentPixel and the cluster centers
-					double smallestEuclideanDistance = Math.sqrt(Math.pow(currentPixelRed - tempClusterCenterRed, 2) + Math.pow(currentPixelGreen - tempClusterCenterGreen, 2)
-							+ Math.pow(currentPixelBlue - tempClusterCenterBlue, 2));
-					
-					//find the cluster center that has the smallest distance to the current pixel
-					tempClusterCenterIndex++;				
-					for(; tempClusterCenterIndex < k; tempClusterCenterIndex++){					
-						
-						tempClusterCenterRed = clusterCentersRed[tempClusterCenterIndex];
-						tempClusterCenterGreen = clusterCentersGreen[tempClusterCenterIndex];
-						tempClusterCenterBlue = clusterCentersBlue[tempClusterCenterIndex];					
-						
-						double currentEuclideanDistance = Math.sqrt(Math.pow(currentPixelRed - tempClusterCenterRed, 2) + Math.pow(currentPixelGreen - tempClusterCenterGreen, 2)
-								+ Math.pow(currentPixelBlue - tempClusterCenterBlue, 2));
-						
-						if(currentEuclideanDistance < smallestEuclideanDistance){
-							smallestEuclideanDistance = currentEuclideanDistance;
-							smallestEuclideanDistanceClusterCenterIndex = tempClusterCenterIndex;
-						}
-					}
-					
-					//assign current pixel to the cluster whose center has the smallest distance to the pixel
-					clusters.get(smallestEuclideanDistanceClusterCenterIndex).add(currentCluster.get(j));
-					//remove current pixel from the current cluster
-					currentCluster.remove(j);
-					
-					//make elementChanged true if currentPixel changed cluster, that is
-					//i is different from smallesEuclideanDistanceClusterCenterIndex
-					if(i != smallestEuclideanDistanceClusterCenterIndex){
-						elementChanged = true;
-					}
-					 
-				}
-			}
-			
-			//break loop if no element changed its cluster
-			if(elementChanged == false){
-				break;
-			}
-			
-			//re-compute cluster centers
-			for(int i = 0; i < k; i++){
-				
-				int sumOfReds = 0;
-				int sumOfGreens = 0;
-				int sumOfBlues = 0;
-				
-				ArrayList<Point> currentCluster = clusters.get(i);
-				for(int j = 0; j < currentCluster.size(); j++){
-					
-					Point currentPixelCoords = currentCluster.get(j);
-					Color currentColor = new Color(image.getRGB(currentPixelCoords.x, currentPixelCoords.y));
-					sumOfReds += currentColor.getRed();
-					sumOfGreens += currentColor.getGreen();
-					sumOfBlues += currentColor.getBlue();
-				}
-				
-				if(currentCluster.size() != 0){
-					clusterCentersRed[i] = sumOfReds / currentCluster.size();
-					clusterCentersGreen[i] = sumOfGreens / currentCluster.size();
-					clusterCentersBlue[i] = sumOfBlues / currentCluster.size();
-				}
-			}
-			
-			loopCount++;
-			
-		}
+		//pixels of the image and the cluster index of every pixel
+		int pixels[] = RasterPixels.getPixels(image);
+		int labels[] = new int[pixels.length];
 		
-		//construct the result image with respect to the clusters
-		for(int i = 0; i < k; i++){
-			
-			ArrayList<Point> currentCluster = clusters.get(i);
-			Color currentClusterCenterColor = new Color(clusterCentersRed[i], clusterCentersGreen[i], clusterCentersBlue[i]);
-			for(int j = 0; j < currentCluster.size(); j++){				
-				
-				resultImage.setRGB(currentCluster.get(j).x, currentCluster.get(j).y, currentClusterCenterColor.getRGB());
-			}
-		}
+		KMeansSegmenter segmenter = segmentPixels(pixels, labels, k, loopLimit);
 		
+		//construct the result image with respect to the clusters, the labels are replaced by the cluster colors
+		segmenter.render(labels, labels);
 		
-		return resultImage;
+		//result image that will be returned
+		return RasterPixels.createImage(labels, imageWidth, imageHeight, image.getType());
 	}
 
+	//clusters the pixels with k-means and stores the cluster index of every pixel in labels
+	private KMeansSegmenter segmentPixels(int pixels[], int labels[], int k, int loopLimit){
+		return createSegmentationStage(k, loopLimit).segment(pixels, labels);
+	}
+	
+	//totals of all images cartoonizeImage cartoonized
+	public PipelineMetrics getMetrics(){
+		return metrics;
+	}
+	
+	//clusters a sample of an image starting from the centers of another segmenter, running at most loopLimit
+	//iterations
+	KMeansSegmenter refineCenters(int samplePixels[], KMeansSegmenter segmenter, int loopLimit){
+		return createSegmentationStage(segmenter.getClusterCount(), loopLimit).refineCenters(samplePixels, segmenter.getCentersRed(),
+				segmenter.getCentersGreen(), segmenter.getCentersBlue());
+	}
+	
+	//kernels of the filters, scalar or vector
+	PixelKernels getPixelKernels(){
+		return kernels;
+	}
+	
+	//clusters a sample of an image with the settings of cartoonizeImage and returns the segmenter holding the
+	//fitted centers
+	KMeansSegmenter fitCenters(int samplePixels[]){
+		return createSegmentationStage(SEGMENTATION_CLUSTER_COUNT, SEGMENTATION_LOOP_COUNT).fitCenters(samplePixels);
+	}
+	
+	//segmentation stage with the current settings
+	SegmentationStage createSegmentationStage(int k, int loopLimit){
+		return new SegmentationStage(k, loopLimit, segmentationSeed, segmentationSampleFraction, segmentationRandomSampling, segmentationConvergenceThreshold,
+				true, kernels, pool, null);
+	}
+	
 	// this method is used by applyEdgeDetection and applyImageSegmentation methods to get greyscale of the
 	// given image
-	private int[] convertImageToGreyscale(BufferedImage image) {
+	int[] convertImageToGreyscale(BufferedImage image) {
 
 		int imageWidth = image.getWidth();
 		int imageHeight = image.getHeight();
+
+		return convertImageToGreyscale(RasterPixels.getPixels(image), imageWidth, imageHeight);
+	}
+
+	// greyscale of the packed pixels of an image
+	private int[] convertImageToGreyscale(int pixels[], int imageWidth, int imageHeight) {
 		
 		int greyscale[] = new int[imageHeight * imageWidth];
 
 		// Use luminosity method. Reference:
 		// http://www.johndcook.com/blog/2009/08/24/algorithms-convert-color-grayscale/
-
-		for (int countery = 0; countery < imageHeight; countery++) {
-			for (int counterx = 0; counterx < imageWidth; counterx++) {
-
-				// get current pixel
-				Color currentPixel = new Color(image.getRGB(counterx, countery));
-				int currentPixelRed = currentPixel.getRed();
-				int currentPixelGreen = currentPixel.getGreen();
-				int currentPixelBlue = currentPixel.getBlue();
-
-				greyscale[imageWidth * countery + counterx] = (int) (0.21 * currentPixelRed + 0.71 * currentPixelGreen + 0.07 * currentPixelBlue);
-			}
-		}
+		kernels.convertToGreyscale(pixels, 0, greyscale, 0, greyscale.length);
 
 		return greyscale;
 	}
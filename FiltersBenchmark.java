@@ -0,0 +1,340 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+//benchmarks the stages of Filters on synthetic images, so it runs without any input files. Every benchmark is
+//warmed up and then measured over a number of iterations; besides the time per operation it reports the bytes
+//allocated per operation and the allocation rate, summed over all threads of the JVM.
+//Example: java source.FiltersBenchmark -benchmarks segmentation,median -megapixels 1,12 -windows 9,15 -threads 1,8
+//The vector kernels are benchmarked when they were compiled from vector/ and the JVM runs with --add-modules
+//jdk.incubator.vector, the scalar kernels when they weren't, when it doesn't or when -Dcartoonizer.scalarKernels=true
+//is given.
+public class FiltersBenchmark {
+
+	static final String BENCHMARKS[] = {"segmentation", "median", "edge", "greyscale", "quickselect", "selection", "cartoonize", "pipeline"};
+
+	//keeps the JIT from removing the benchmarked code
+	static volatile int sink;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+
+	public FiltersBenchmark(int warmupIterations, int measurementIterations){
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+	}
+
+	//an operation that is measured
+	interface Operation{
+		void run();
+	}
+
+	//creates a deterministic image of the given size with smooth color gradients, a few flat shapes and noise,
+	//roughly what a photo looks like to the filters
+	static BufferedImage createImage(double megapixels, int type){
+
+		int imageWidth = (int)Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+		int imageHeight = (int)Math.round(megapixels * 1e6 / imageWidth);
+
+		Random random = new Random(42);
+		int pixels[] = new int[imageWidth * imageHeight];
+		for(int countery = 0; countery < imageHeight; countery++){
+			for(int counterx = 0; counterx < imageWidth; counterx++){
+
+				double u = (double)counterx / imageWidth;
+				double v = (double)countery / imageHeight;
+				int red = (int)(127 + 100 * Math.sin(6 * u + 2 * v));
+				int green = (int)(127 + 100 * Math.cos(4 * v - 3 * u));
+				int blue = (int)(127 + 100 * Math.sin(5 * u * v + 1));
+
+				//flat disc in the middle of the image
+				if((u - 0.5) * (u - 0.5) + (v - 0.5) * (v - 0.5) < 0.04){
+					red = 230;
+					green = 200;
+					blue = 40;
+				}
+
+				int noise = random.nextInt(17) - 8;
+				red = Math.max(0, Math.min(255, red + noise));
+				green = Math.max(0, Math.min(255, green + noise));
+				blue = Math.max(0, Math.min(255, blue + noise));
+				pixels[countery * imageWidth + counterx] = 0xff000000 | (red << 16) | (green << 8) | blue;
+			}
+		}
+
+		BufferedImage image = new BufferedImage(imageWidth, imageHeight, type);
+		image.setRGB(0, 0, imageWidth, imageHeight, pixels, 0, imageWidth);
+		return image;
+	}
+
+	//runs the operation and prints the time and allocations per operation. pixelCount is the number of pixels
+	//an operation processes, or 0 if megapixels per second don't apply
+	void measure(String name, long pixelCount, Operation operation){
+
+		for(int i = 0; i < warmupIterations; i++){
+			operation.run();
+		}
+
+		long totalNanos = 0;
+		long bestNanos = Long.MAX_VALUE;
+		long allocatedBytesBefore = allocatedBytes();
+		for(int i = 0; i < measurementIterations; i++){
+			long startTime = System.nanoTime();
+			operation.run();
+			long elapsedNanos = System.nanoTime() - startTime;
+			totalNanos += elapsedNanos;
+			bestNanos = Math.min(bestNanos, elapsedNanos);
+		}
+		long allocatedBytesPerOperation = (allocatedBytes() - allocatedBytesBefore) / measurementIterations;
+
+		double averageMillis = totalNanos / 1e6 / measurementIterations;
+		double allocationRate = allocatedBytesPerOperation / 1e6 / (averageMillis / 1e3);
+		String throughput = pixelCount > 0 ? String.format(Locale.ROOT, "%9.2f MP/s", pixelCount / 1e6 / (averageMillis / 1e3)) : "";
+
+		System.out.println(String.format(Locale.ROOT, "%-60s %10.2f ms/op (best %10.2f) %s %12.1f KB/op %9.1f MB/s alloc",
+				name, averageMillis, bestNanos / 1e6, throughput, allocatedBytesPerOperation / 1024.0, allocationRate));
+	}
+
+	//bytes allocated so far by all live threads, or 0 if the JVM can't tell
+	static long allocatedBytes(){
+
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(!(threadBean instanceof com.sun.management.ThreadMXBean)){
+			return 0;
+		}
+
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+		if(!allocationBean.isThreadAllocatedMemoryEnabled()){
+			return 0;
+		}
+
+		long totalBytes = 0;
+		for(long bytes : allocationBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())){
+			if(bytes > 0){
+				totalBytes += bytes;
+			}
+		}
+		return totalBytes;
+	}
+
+	void run(List<String> benchmarks, double megapixelsValues[], int clusterCounts[], int windowSizes[], int threadCounts[]){
+
+		for(String benchmark : benchmarks){
+
+			if(benchmark.equals("quickselect")){
+				benchmarkQuickSelect(windowSizes);
+				continue;
+			}
+			if(benchmark.equals("selection")){
+				benchmarkSelection(windowSizes);
+				continue;
+			}
+
+			for(double megapixels : megapixelsValues){
+
+				final BufferedImage image = createImage(megapixels, BufferedImage.TYPE_INT_RGB);
+				final long pixelCount = (long)image.getWidth() * image.getHeight();
+				String imageName = String.format(Locale.ROOT, "%s %dx%d", benchmark, image.getWidth(), image.getHeight());
+
+				for(int threads : threadCounts){
+
+					final Filters filters = new Filters();
+					filters.setParallelism(threads);
+					String name = imageName + " threads=" + threads;
+
+					if(benchmark.equals("segmentation")){
+						for(final int k : clusterCounts){
+							measure(name + " k=" + k, pixelCount, new Operation(){
+								public void run(){
+									sink += filters.applyImageSegmentation(image, k, Filters.SEGMENTATION_LOOP_COUNT).getRGB(0, 0);
+								}
+							});
+						}
+					}else if(benchmark.equals("median")){
+						for(final int window : windowSizes){
+							for(final MedianFilterMode mode : MedianFilterMode.values()){
+								filters.setMedianFilterMode(mode);
+								measure(name + " window=" + window + " " + mode, pixelCount, new Operation(){
+									public void run(){
+										sink += filters.applyMedianFilter(image, window, window).getRGB(window, window);
+									}
+								});
+							}
+						}
+					}else if(benchmark.equals("edge")){
+						measure(name, pixelCount, new Operation(){
+							public void run(){
+								sink += filters.applyEdgeDetection(image, Filters.EDGE_DETECTION_THRESHOLD).getRGB(1, 1);
+							}
+						});
+					}else if(benchmark.equals("greyscale")){
+						measure(name, pixelCount, new Operation(){
+							public void run(){
+								sink += filters.convertImageToGreyscale(image)[0];
+							}
+						});
+					}else if(benchmark.equals("cartoonize")){
+						measure(name, pixelCount, new Operation(){
+							public void run(){
+								sink += filters.cartoonizeImage(image).getRGB(0, 0);
+							}
+						});
+					}else if(benchmark.equals("pipeline")){
+						//reuses the pipeline and the result array, as a service would
+						final CartoonPipeline pipeline = new CartoonPipeline.Builder().parallelism(threads).build();
+						final int pixels[] = RasterPixels.getPixels(image);
+						final int resultPixels[] = new int[pixels.length];
+						measure(name, pixelCount, new Operation(){
+							public void run(){
+								pipeline.cartoonize(pixels, image.getWidth(), image.getHeight(), resultPixels);
+								sink += resultPixels[0];
+							}
+						});
+						pipeline.shutdown();
+					}else{
+						throw new IllegalArgumentException("unknown benchmark: " + benchmark);
+					}
+
+					filters.shutdown();
+				}
+			}
+		}
+	}
+
+	//selects the median of a million windows of random byte values
+	private void benchmarkQuickSelect(int windowSizes[]){
+
+		final int operationCount = 1000000;
+		for(final int window : windowSizes){
+
+			final int windowArea = window * window;
+			final int values[] = new int[windowArea * 64];
+			Random random = new Random(42);
+			for(int i = 0; i < values.length; i++){
+				values[i] = random.nextInt(256);
+			}
+
+			final QuickSelect quickSelect = new QuickSelect();
+			final int windowValues[] = new int[windowArea];
+			measure("quickselect window=" + window + " x" + operationCount, 0, new Operation(){
+				public void run(){
+					int result = 0;
+					for(int i = 0; i < operationCount; i++){
+						System.arraycopy(values, (i & 63) * windowArea, windowValues, 0, windowArea);
+						result += quickSelect.select(windowValues, windowArea / 2);
+					}
+					sink += result;
+				}
+			});
+		}
+	}
+
+	//selects the median of a million windows of random byte values with the counting median and, for 3x3 and 5x5
+	//windows, with the sorting network of MedianSelector. The same windows with QuickSelect are the quickselect
+	//benchmark
+	private void benchmarkSelection(int windowSizes[]){
+
+		final int operationCount = 1000000;
+		for(final int window : windowSizes){
+
+			final int windowArea = window * window;
+			final int values[] = new int[windowArea * 64];
+			Random random = new Random(42);
+			for(int i = 0; i < values.length; i++){
+				values[i] = random.nextInt(256);
+			}
+
+			final MedianSelector medianSelector = new MedianSelector();
+			final int windowValues[] = new int[windowArea];
+			measure("selection window=" + window + " counting x" + operationCount, 0, new Operation(){
+				public void run(){
+					int result = 0;
+					for(int i = 0; i < operationCount; i++){
+						System.arraycopy(values, (i & 63) * windowArea, windowValues, 0, windowArea);
+						result += medianSelector.countingMedian(windowValues, windowArea);
+					}
+					sink += result;
+				}
+			});
+			if(MedianSelector.hasNetwork(windowArea)){
+				measure("selection window=" + window + " network x" + operationCount, 0, new Operation(){
+					public void run(){
+						int result = 0;
+						for(int i = 0; i < operationCount; i++){
+							System.arraycopy(values, (i & 63) * windowArea, windowValues, 0, windowArea);
+							result += medianSelector.median(windowValues, windowArea);
+						}
+						sink += result;
+					}
+				});
+			}
+		}
+	}
+
+	private static int[] parseInts(String value){
+
+		String parts[] = value.split(",");
+		int values[] = new int[parts.length];
+		for(int i = 0; i < parts.length; i++){
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static double[] parseDoubles(String value){
+
+		String parts[] = value.split(",");
+		double values[] = new double[parts.length];
+		for(int i = 0; i < parts.length; i++){
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	public static void main(String[] args){
+
+		List<String> benchmarks = new ArrayList<String>(Arrays.asList(BENCHMARKS));
+		double megapixels[] = {1};
+		int clusterCounts[] = {Filters.SEGMENTATION_CLUSTER_COUNT};
+		int windowSizes[] = {Filters.MEDIAN_FILTER_WINDOW_WIDTH};
+		int threadCounts[] = {Runtime.getRuntime().availableProcessors()};
+		int warmupIterations = 2;
+		int measurementIterations = 5;
+
+		try{
+			for(int i = 0; i < args.length; i++){
+				if(args[i].equals("-benchmarks")){
+					benchmarks = Arrays.asList(args[++i].split(","));
+				}else if(args[i].equals("-megapixels")){
+					megapixels = parseDoubles(args[++i]);
+				}else if(args[i].equals("-k")){
+					clusterCounts = parseInts(args[++i]);
+				}else if(args[i].equals("-windows")){
+					windowSizes = parseInts(args[++i]);
+				}else if(args[i].equals("-threads")){
+					threadCounts = parseInts(args[++i]);
+				}else if(args[i].equals("-warmup")){
+					warmupIterations = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-iterations")){
+					measurementIterations = Integer.parseInt(args[++i]);
+				}else{
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		}catch(RuntimeException ex){
+			System.err.println("usage: FiltersBenchmark [-benchmarks " + String.join(",", BENCHMARKS) + "] [-megapixels 1,4,24,50]");
+			System.err.println("                        [-k 32,64] [-windows 9,15] [-threads 1,16] [-warmup n] [-iterations n]");
+			System.exit(2);
+		}
+
+		System.out.println("kernels: " + (PixelKernels.getInstance().isVectorized() ? "vector" : "scalar"));
+		new FiltersBenchmark(warmupIterations, measurementIterations).run(benchmarks, megapixels, clusterCounts, windowSizes, threadCounts);
+	}
+
+}
@@ -0,0 +1,398 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+
+//cartoonizes the frames of a video, given as a sequence of images, so that the palette is stable over time and
+//unchanged parts of a frame aren't filtered again. The cluster centers are fitted on the first frame and kept
+//for the following frames, so pixels that don't change keep their colors; they are fitted again, starting from
+//the previous centers, every refitInterval frames and when most of the frame changed, such as at a scene cut.
+//Every frame is split into tiles that are compared with the pixels the tile was last cartoonized from: tiles
+//whose pixels and neighbouring tiles all stayed within changeThreshold of them keep their previous result,
+//the others are cartoonized again with the TiledCartoonizer. A frame cartoonized in full gives the same result
+//as Filters.cartoonizeImage with the same centers.
+//Frames are decoded, cartoonized and encoded on three threads connected by bounded queues, so reading and
+//writing files overlaps with the filtering.
+//Example: java source.FrameSequenceCartoonizer -o cartoon frames
+public class FrameSequenceCartoonizer {
+
+	//frames waiting between two stages of run
+	private static final int QUEUE_CAPACITY = 4;
+
+	private final Filters filters;
+	private final TiledCartoonizer tiledCartoonizer;
+
+	//largest channel difference of a pixel that doesn't count as a change
+	private int changeThreshold = 12;
+	//frames after which the centers are fitted again
+	private int refitInterval = 30;
+	//fraction of changed tiles above which the centers are fitted again
+	private double sceneChangeFraction = 0.5;
+	//k-means iterations when the centers are fitted again from the previous centers
+	private int refitLoopCount = 3;
+	//the centers are fitted on every sampleStride-th pixel of every sampleStride-th row
+	private int sampleStride = 4;
+
+	//state of the sequence: the centers, the pixels every tile was last cartoonized from and the last result
+	private KMeansSegmenter segmenter;
+	private int referencePixels[];
+	private int resultPixels[];
+	private int frameWidth;
+	private int frameHeight;
+	private int framesSinceFit;
+
+	//statistics of the sequence
+	private long frameCount;
+	private long tileCount;
+	private long cartoonizedTileCount;
+	private long fitCount;
+
+	public FrameSequenceCartoonizer(Filters filters, int tileSize){
+
+		this.filters = filters;
+		this.tiledCartoonizer = new TiledCartoonizer(filters, tileSize, tileSize);
+
+		//a tile's result depends on the pixels up to a halo around it, which must lie in the neighbouring tiles
+		if(tileSize < tiledCartoonizer.getHalo()){
+			throw new IllegalArgumentException("tile size must be at least " + tiledCartoonizer.getHalo() + ": " + tileSize);
+		}
+	}
+
+	public void setChangeThreshold(int changeThreshold){
+		this.changeThreshold = changeThreshold;
+	}
+
+	public void setRefitInterval(int refitInterval){
+		this.refitInterval = refitInterval;
+	}
+
+	public void setSceneChangeFraction(double sceneChangeFraction){
+		this.sceneChangeFraction = sceneChangeFraction;
+	}
+
+	public void setRefitLoopCount(int refitLoopCount){
+		this.refitLoopCount = refitLoopCount;
+	}
+
+	//starts a new sequence, the next frame is cartoonized in full with newly fitted centers
+	public void reset(){
+
+		segmenter = null;
+		referencePixels = null;
+		resultPixels = null;
+	}
+
+	//cartoonizes the next frame of the sequence. Frames of another size than the previous frame start a new
+	//sequence
+	public BufferedImage cartoonizeFrame(BufferedImage frame) throws IOException{
+
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		if(referencePixels == null || width != frameWidth || height != frameHeight){
+			reset();
+			frameWidth = width;
+			frameHeight = height;
+			referencePixels = new int[width * height];
+			resultPixels = new int[width * height];
+		}
+
+		int pixels[] = RasterPixels.getPixels(frame);
+		int tileSize = tiledCartoonizer.getTileWidth();
+		int tileColumns = (width + tileSize - 1) / tileSize;
+		int tileRows = (height + tileSize - 1) / tileSize;
+
+		boolean changedTiles[] = new boolean[tileColumns * tileRows];
+		int changedTileCount = 0;
+		for(int tiley = 0; tiley < tileRows; tiley++){
+			for(int tilex = 0; tilex < tileColumns; tilex++){
+				if(segmenter == null || hasChanged(pixels, tilex * tileSize, tiley * tileSize, tileSize)){
+					changedTiles[tiley * tileColumns + tilex] = true;
+					changedTileCount++;
+				}
+			}
+		}
+
+		boolean tiles[];
+		if(segmenter == null || framesSinceFit >= refitInterval || changedTileCount > sceneChangeFraction * changedTiles.length){
+			fitCenters(new PixelArrayTiles(pixels, width, height).readSubsampled(sampleStride));
+			tiles = new boolean[changedTiles.length];
+			Arrays.fill(tiles, true);
+		}else{
+			tiles = getAffectedTiles(changedTiles, tileColumns, tileRows);
+		}
+		framesSinceFit++;
+
+		//the tiles are cartoonized from the pixels of this frame now
+		for(int tiley = 0; tiley < tileRows; tiley++){
+			for(int tilex = 0; tilex < tileColumns; tilex++){
+				if(tiles[tiley * tileColumns + tilex]){
+					copyTile(pixels, referencePixels, tilex * tileSize, tiley * tileSize, tileSize);
+					cartoonizedTileCount++;
+				}
+			}
+		}
+		tiledCartoonizer.cartoonize(new PixelArrayTiles(referencePixels, width, height), new PixelArrayTiles(resultPixels, width, height), segmenter, tiles);
+
+		frameCount++;
+		tileCount += tiles.length;
+		return RasterPixels.createImage(resultPixels.clone(), width, height, frame.getType());
+	}
+
+	public long getFrameCount(){
+		return frameCount;
+	}
+
+	//fraction of the tiles that were cartoonized, the others kept their previous result
+	public double getCartoonizedTileFraction(){
+		return tileCount == 0 ? 0 : (double)cartoonizedTileCount / tileCount;
+	}
+
+	//number of times the centers were fitted
+	public long getFitCount(){
+		return fitCount;
+	}
+
+	private void fitCenters(int samplePixels[]){
+
+		if(segmenter == null){
+			segmenter = filters.fitCenters(samplePixels);
+		}else{
+			segmenter = filters.refineCenters(samplePixels, segmenter, refitLoopCount);
+		}
+		framesSinceFit = 0;
+		fitCount++;
+	}
+
+	//whether a pixel of the tile differs from the pixel it was last cartoonized from by more than the threshold
+	private boolean hasChanged(int pixels[], int tileX, int tileY, int tileSize){
+
+		int lastRow = Math.min(frameHeight, tileY + tileSize);
+		int lastColumn = Math.min(frameWidth, tileX + tileSize);
+		for(int countery = tileY; countery < lastRow; countery++){
+			for(int index = countery * frameWidth + tileX; index < countery * frameWidth + lastColumn; index++){
+
+				int currentPixel = pixels[index];
+				int referencePixel = referencePixels[index];
+				if(Math.abs(((currentPixel >> 16) & 0xff) - ((referencePixel >> 16) & 0xff)) > changeThreshold
+						|| Math.abs(((currentPixel >> 8) & 0xff) - ((referencePixel >> 8) & 0xff)) > changeThreshold
+						|| Math.abs((currentPixel & 0xff) - (referencePixel & 0xff)) > changeThreshold){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	//the changed tiles and their neighbours, whose halos reach into the changed tiles
+	private static boolean[] getAffectedTiles(boolean changedTiles[], int tileColumns, int tileRows){
+
+		boolean affectedTiles[] = new boolean[changedTiles.length];
+		for(int tiley = 0; tiley < tileRows; tiley++){
+			for(int tilex = 0; tilex < tileColumns; tilex++){
+
+				if(!changedTiles[tiley * tileColumns + tilex]){
+					continue;
+				}
+				for(int neighboury = Math.max(0, tiley - 1); neighboury <= Math.min(tileRows - 1, tiley + 1); neighboury++){
+					for(int neighbourx = Math.max(0, tilex - 1); neighbourx <= Math.min(tileColumns - 1, tilex + 1); neighbourx++){
+						affectedTiles[neighboury * tileColumns + neighbourx] = true;
+					}
+				}
+			}
+		}
+		return affectedTiles;
+	}
+
+	private void copyTile(int source[], int destination[], int tileX, int tileY, int tileSize){
+
+		int tileWidth = Math.min(tileSize, frameWidth - tileX);
+		for(int countery = tileY; countery < Math.min(frameHeight, tileY + tileSize); countery++){
+			System.arraycopy(source, countery * frameWidth + tileX, destination, countery * frameWidth + tileX, tileWidth);
+		}
+	}
+
+	//a frame travelling through the stages of run, END marks the end of the sequence
+	private static class Frame{
+
+		static final Frame END = new Frame(null, null);
+
+		final File file;
+		final File outputFile;
+		BufferedImage image;
+
+		Frame(File file, File outputFile){
+			this.file = file;
+			this.outputFile = outputFile;
+		}
+	}
+
+	//reports a frame that is skipped
+	private static void reportError(File file, Throwable ex){
+		System.err.println(file + ": " + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+	}
+
+	//puts END on the queue, unless the thread is interrupted because the stage reading the queue stopped
+	private static void putEnd(BlockingQueue<Frame> frames){
+
+		try{
+			frames.put(Frame.END);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//cartoonizes the frames in order and writes them to the output directory with the same names, in the given
+	//format or the format of the input files if format is null. Frames whose names clash are named as in
+	//BatchCartoonizer. Frames that fail to be read, cartoonized or written are reported and skipped
+	public void run(final List<File> frameFiles, File outputDirectory, final String format, final int maxDimension) throws InterruptedException{
+
+		final List<File> outputFiles = BatchCartoonizer.getOutputFiles(frameFiles, outputDirectory, format);
+		final BlockingQueue<Frame> decodedFrames = new ArrayBlockingQueue<Frame>(QUEUE_CAPACITY);
+		final BlockingQueue<Frame> cartoonizedFrames = new ArrayBlockingQueue<Frame>(QUEUE_CAPACITY);
+
+		Thread decodeThread = new Thread(new Runnable(){
+			public void run(){
+				try{
+					for(int i = 0; i < frameFiles.size(); i++){
+						File frameFile = frameFiles.get(i);
+						Frame frame = new Frame(frameFile, outputFiles.get(i));
+						try{
+							frame.image = maxDimension > 0 ? SubsampledDecoder.read(frameFile, maxDimension) : ImageIO.read(frameFile);
+							if(frame.image == null){
+								throw new IOException("unsupported image format");
+							}
+						}catch(Throwable ex){
+							reportError(frameFile, ex);
+							continue;
+						}
+						decodedFrames.put(frame);
+					}
+				}catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+				}finally{
+					putEnd(decodedFrames);
+				}
+			}
+		}, "frame decoder");
+
+		Thread encodeThread = new Thread(new Runnable(){
+			public void run(){
+				try{
+					for(Frame frame = cartoonizedFrames.take(); frame != Frame.END; frame = cartoonizedFrames.take()){
+
+						File outputFile = frame.outputFile;
+						String outputFormat = FilenameUtils.getExtension(outputFile.getName());
+						try{
+							if(outputFormat.equals(RawPixelFile.EXTENSION)){
+								RawPixelFile.write(frame.image, outputFile);
+							}else if(!ImageIO.write(frame.image, outputFormat, outputFile)){
+								throw new IOException("no image writer for format " + outputFormat);
+							}
+						}catch(Throwable ex){
+							reportError(outputFile, ex);
+						}
+					}
+				}catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "frame encoder");
+
+		decodeThread.start();
+		encodeThread.start();
+		long startTime = System.nanoTime();
+
+		try{
+			try{
+				for(Frame frame = decodedFrames.take(); frame != Frame.END; frame = decodedFrames.take()){
+					try{
+						frame.image = cartoonizeFrame(frame.image);
+					}catch(Throwable ex){
+						reportError(frame.file, ex);
+						continue;
+					}
+					cartoonizedFrames.put(frame);
+				}
+			}finally{
+				putEnd(cartoonizedFrames);
+			}
+			encodeThread.join();
+		}finally{
+			decodeThread.interrupt();
+			encodeThread.interrupt();
+		}
+
+		double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "cartoonized %d frames in %.2f s: %.2f frames/s, %.1f%% of the tiles cartoonized, centers fitted %d times",
+				frameCount, elapsedSeconds, frameCount / elapsedSeconds, 100 * getCartoonizedTileFraction(), fitCount));
+	}
+
+	private static void printUsage(){
+		System.err.println("usage: FrameSequenceCartoonizer -o <output directory> [-format <png|jpg|raw|...>] [-tile <size>] [-threshold <channel difference>]");
+		System.err.println("                                [-refit <frames>] [-max-size <largest width or height>] <frame directory or files>...");
+	}
+
+	public static void main(String[] args) throws Exception{
+
+		File outputDirectory = null;
+		String format = null;
+		int tileSize = 64;
+		int changeThreshold = 12;
+		int refitInterval = 30;
+		int maxDimension = 0;
+		List<String> inputPaths = new ArrayList<String>();
+
+		try{
+			for(int i = 0; i < args.length; i++){
+				if(args[i].equals("-o")){
+					outputDirectory = new File(args[++i]);
+				}else if(args[i].equals("-format")){
+					format = args[++i];
+				}else if(args[i].equals("-tile")){
+					tileSize = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-threshold")){
+					changeThreshold = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-refit")){
+					refitInterval = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-max-size")){
+					maxDimension = Integer.parseInt(args[++i]);
+				}else{
+					inputPaths.add(args[i]);
+				}
+			}
+		}catch(RuntimeException ex){
+			printUsage();
+			System.exit(2);
+		}
+
+		if(outputDirectory == null || inputPaths.isEmpty()){
+			printUsage();
+			System.exit(2);
+		}
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()){
+			System.err.println("cannot create output directory " + outputDirectory);
+			System.exit(1);
+		}
+
+		//the frames are cartoonized one after the other, the filters of a frame may use all processors
+		FrameSequenceCartoonizer cartoonizer = new FrameSequenceCartoonizer(new Filters(), tileSize);
+		cartoonizer.setChangeThreshold(changeThreshold);
+		cartoonizer.setRefitInterval(refitInterval);
+
+		//the frames are in the order of their names
+		List<File> frameFiles = BatchCartoonizer.collectInputFiles(inputPaths, new ArrayList<String>());
+		cartoonizer.run(frameFiles, outputDirectory, format, maxDimension);
+	}
+
+}
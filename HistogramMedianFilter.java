@@ -0,0 +1,225 @@
+package source;
+
+//median filter whose cost per pixel doesn't depend on the window size. Every column keeps a histogram of its
+//pixels in the rows covered by the window, and the window histogram is updated by adding the column
+//entering the window and subtracting the column leaving it. Histograms have a coarse level of 16 bins and a fine
+//level of 256 bins; the fine level of the window is only brought up to date for the coarse bin that holds the
+//median. Reference: S. Perreault and P. Hebert, "Median Filtering in Constant Time", IEEE TIP 16(9), 2007.
+//Like the QuickSelect median filter, pixels closer than half a window to the image border are left black.
+public class HistogramMedianFilter implements MedianRowFilter {
+
+	private final int pixels[];
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int windowWidth;
+	private final int windowHeight;
+	private final int edgex;
+	private final int edgey;
+	private final int windowMiddle;
+
+	private final ChannelHistogram redHistogram;
+	private final ChannelHistogram greenHistogram;
+	private final ChannelHistogram blueHistogram;
+
+	//next row that filterRow expects
+	private int nextRow;
+
+	public HistogramMedianFilter(int pixels[], int imageWidth, int imageHeight, int windowWidth, int windowHeight){
+
+		this.pixels = pixels;
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.windowWidth = windowWidth;
+		this.windowHeight = windowHeight;
+		this.edgex = windowWidth / 2;
+		this.edgey = windowHeight / 2;
+		this.windowMiddle = windowWidth * windowHeight / 2;
+
+		redHistogram = new ChannelHistogram(16);
+		greenHistogram = new ChannelHistogram(8);
+		blueHistogram = new ChannelHistogram(0);
+
+		nextRow = edgey;
+	}
+
+	public int getWindowHeight(){
+		return windowHeight;
+	}
+
+	//filters the whole image and returns the filtered pixels
+	public int[] filter(){
+
+		int result[] = new int[imageWidth * imageHeight];
+		for(int countery = edgey; countery < imageHeight - edgey; countery++){
+			filterRow(countery, result, countery * imageWidth);
+		}
+		return result;
+	}
+
+	public void filterRow(int y, int result[], int resultOffset){
+
+		if(y != nextRow || y >= imageHeight - edgey){
+			throw new IllegalStateException("expected row " + nextRow + " but got " + y);
+		}
+
+		if(y == edgey){
+			//the column histograms hold the first windowHeight rows
+			for(int countery = 0; countery < windowHeight; countery++){
+				for(int counterx = 0; counterx < imageWidth; counterx++){
+					int currentPixel = pixels[countery * imageWidth + counterx];
+					redHistogram.addToColumn(counterx, currentPixel);
+					greenHistogram.addToColumn(counterx, currentPixel);
+					blueHistogram.addToColumn(counterx, currentPixel);
+				}
+			}
+		}else{
+			//move the column histograms one row down
+			int leavingRowOffset = (y - edgey - 1) * imageWidth;
+			int enteringRowOffset = (y - edgey + windowHeight - 1) * imageWidth;
+			for(int counterx = 0; counterx < imageWidth; counterx++){
+				int leavingPixel = pixels[leavingRowOffset + counterx];
+				int enteringPixel = pixels[enteringRowOffset + counterx];
+				redHistogram.moveColumn(counterx, leavingPixel, enteringPixel);
+				greenHistogram.moveColumn(counterx, leavingPixel, enteringPixel);
+				blueHistogram.moveColumn(counterx, leavingPixel, enteringPixel);
+			}
+		}
+		nextRow++;
+
+		for(int counterx = 0; counterx < imageWidth; counterx++){
+			result[resultOffset + counterx] = 0;
+		}
+
+		if(imageWidth < windowWidth){
+			return;
+		}
+
+		redHistogram.startRow();
+		greenHistogram.startRow();
+		blueHistogram.startRow();
+
+		for(int counterx = edgex; counterx < imageWidth - edgex; counterx++){
+
+			if(counterx != edgex){
+				redHistogram.slideWindow(counterx);
+				greenHistogram.slideWindow(counterx);
+				blueHistogram.slideWindow(counterx);
+			}
+
+			int medianRed = redHistogram.median(counterx);
+			int medianGreen = greenHistogram.median(counterx);
+			int medianBlue = blueHistogram.median(counterx);
+			result[resultOffset + counterx] = 0xff000000 | (medianRed << 16) | (medianGreen << 8) | medianBlue;
+		}
+	}
+
+	//column and window histograms of one color channel
+	private class ChannelHistogram{
+
+		//position of the channel in a packed pixel
+		private final int shift;
+
+		//coarse and fine histograms of all columns, column x uses the elements from x * 16 and x * 256
+		private final int columnCoarse[];
+		private final int columnFine[];
+
+		//histograms of the current window
+		private final int windowCoarse[] = new int[16];
+		private final int windowFine[] = new int[256];
+		//window position the fine histogram of each coarse bin was last brought up to date for
+		private final int lastUpdatedColumn[] = new int[16];
+
+		ChannelHistogram(int shift){
+			this.shift = shift;
+			columnCoarse = new int[imageWidth * 16];
+			columnFine = new int[imageWidth * 256];
+		}
+
+		void addToColumn(int x, int pixel){
+			int value = (pixel >> shift) & 0xff;
+			columnCoarse[x * 16 + (value >> 4)]++;
+			columnFine[x * 256 + value]++;
+		}
+
+		void moveColumn(int x, int leavingPixel, int enteringPixel){
+			int leavingValue = (leavingPixel >> shift) & 0xff;
+			int enteringValue = (enteringPixel >> shift) & 0xff;
+			columnCoarse[x * 16 + (leavingValue >> 4)]--;
+			columnFine[x * 256 + leavingValue]--;
+			columnCoarse[x * 16 + (enteringValue >> 4)]++;
+			columnFine[x * 256 + enteringValue]++;
+		}
+
+		//puts the window at the first column of the row
+		void startRow(){
+
+			for(int bin = 0; bin < 16; bin++){
+				windowCoarse[bin] = 0;
+				//force a rebuild of every fine histogram
+				lastUpdatedColumn[bin] = Integer.MIN_VALUE / 2;
+			}
+
+			for(int column = 0; column < windowWidth; column++){
+				for(int bin = 0; bin < 16; bin++){
+					windowCoarse[bin] += columnCoarse[column * 16 + bin];
+				}
+			}
+		}
+
+		//moves the coarse window histogram to be centered at x
+		void slideWindow(int x){
+
+			int leavingOffset = (x - edgex - 1) * 16;
+			int enteringOffset = (x - edgex + windowWidth - 1) * 16;
+			for(int bin = 0; bin < 16; bin++){
+				windowCoarse[bin] += columnCoarse[enteringOffset + bin] - columnCoarse[leavingOffset + bin];
+			}
+		}
+
+		//returns the median of the window centered at x
+		int median(int x){
+
+			//find the coarse bin holding the median
+			int remaining = windowMiddle;
+			int coarseBin = 0;
+			while(windowCoarse[coarseBin] <= remaining){
+				remaining -= windowCoarse[coarseBin];
+				coarseBin++;
+			}
+
+			//bring the fine histogram of the coarse bin up to date
+			int fineOffset = coarseBin * 16;
+			int lastColumn = lastUpdatedColumn[coarseBin];
+			if(x - lastColumn >= windowWidth){
+				for(int bin = 0; bin < 16; bin++){
+					windowFine[fineOffset + bin] = 0;
+				}
+				for(int column = x - edgex; column < x - edgex + windowWidth; column++){
+					int columnOffset = column * 256 + fineOffset;
+					for(int bin = 0; bin < 16; bin++){
+						windowFine[fineOffset + bin] += columnFine[columnOffset + bin];
+					}
+				}
+			}else{
+				for(int column = lastColumn + 1; column <= x; column++){
+					int leavingOffset = (column - edgex - 1) * 256 + fineOffset;
+					int enteringOffset = (column - edgex + windowWidth - 1) * 256 + fineOffset;
+
+					for(int bin = 0; bin < 16; bin++){
+						windowFine[fineOffset + bin] += columnFine[enteringOffset + bin] - columnFine[leavingOffset + bin];
+					}
+				}
+			}
+			lastUpdatedColumn[coarseBin] = x;
+
+			//find the median in the fine histogram
+			int fineBin = fineOffset;
+			while(windowFine[fineBin] <= remaining){
+				remaining -= windowFine[fineBin];
+				fineBin++;
+			}
+			return fineBin;
+		}
+	}
+
+}
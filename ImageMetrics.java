@@ -0,0 +1,158 @@
+package source;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import source.ProgressListener.Stage;
+
+//timings and counters of the cartoonization of one image: the wall time, CPU time and allocated bytes of every
+//stage, and the k-means iterations that were run. The CPU time and the allocated bytes are measured on the thread
+//that runs a stage, so work a stage hands to a fork-join pool only counts in its wall time. They are 0 if the JVM
+//can't measure them.
+public class ImageMetrics {
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	private final int imageWidth;
+	private final int imageHeight;
+
+	//measurements of the stages, indexed by the ordinal of the stage
+	private final long wallNanos[] = new long[Stage.values().length];
+	private final long cpuNanos[] = new long[Stage.values().length];
+	private final long allocatedBytes[] = new long[Stage.values().length];
+
+	private int iterationCount;
+	private int emptyClusterCount;
+
+	//measurements at the start of the running stage
+	private long stageStartWallNanos;
+	private long stageStartCpuNanos;
+	private long stageStartAllocatedBytes;
+
+	public ImageMetrics(int imageWidth, int imageHeight){
+
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+	}
+
+	//starts measuring a stage on the current thread
+	void startStage(){
+
+		stageStartWallNanos = System.nanoTime();
+		stageStartCpuNanos = currentThreadCpuNanos();
+		stageStartAllocatedBytes = currentThreadAllocatedBytes();
+	}
+
+	//adds the time and allocations since startStage to the stage
+	void endStage(Stage stage){
+
+		wallNanos[stage.ordinal()] += System.nanoTime() - stageStartWallNanos;
+		cpuNanos[stage.ordinal()] += currentThreadCpuNanos() - stageStartCpuNanos;
+		allocatedBytes[stage.ordinal()] += currentThreadAllocatedBytes() - stageStartAllocatedBytes;
+	}
+
+	//records the iterations the segmenter ran and the clusters it left empty
+	void recordSegmentation(KMeansSegmenter segmenter){
+
+		iterationCount = segmenter.getIterationCount();
+		emptyClusterCount = segmenter.getEmptyClusterCount();
+	}
+
+	public int getImageWidth(){
+		return imageWidth;
+	}
+
+	public int getImageHeight(){
+		return imageHeight;
+	}
+
+	public long getPixelCount(){
+		return (long)imageWidth * imageHeight;
+	}
+
+	public long getWallNanos(Stage stage){
+		return wallNanos[stage.ordinal()];
+	}
+
+	public long getCpuNanos(Stage stage){
+		return cpuNanos[stage.ordinal()];
+	}
+
+	public long getAllocatedBytes(Stage stage){
+		return allocatedBytes[stage.ordinal()];
+	}
+
+	public long getWallNanos(){
+		return sum(wallNanos);
+	}
+
+	public long getCpuNanos(){
+		return sum(cpuNanos);
+	}
+
+	public long getAllocatedBytes(){
+		return sum(allocatedBytes);
+	}
+
+	//pixels per second of the whole cartoonization, in megapixels
+	public double getMegapixelsPerSecond(){
+
+		long nanos = getWallNanos();
+		return nanos == 0 ? 0 : getPixelCount() / 1e6 / (nanos / 1e9);
+	}
+
+	//k-means iterations that were run, fewer than the loop count if the centers converged
+	public int getIterationCount(){
+		return iterationCount;
+	}
+
+	public int getEmptyClusterCount(){
+		return emptyClusterCount;
+	}
+
+	//returns the metrics as a JSON object on one line
+	public String toJson(){
+
+		StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{\"width\":%d,\"height\":%d,\"wallMillis\":%.3f,\"cpuMillis\":%.3f,\"allocatedBytes\":%d,"
+				+ "\"megapixelsPerSecond\":%.3f,\"iterations\":%d,\"emptyClusters\":%d", imageWidth, imageHeight, getWallNanos() / 1e6,
+				getCpuNanos() / 1e6, getAllocatedBytes(), getMegapixelsPerSecond(), iterationCount, emptyClusterCount));
+		for(Stage stage : Stage.values()){
+			json.append(String.format(Locale.ROOT, ",\"%s\":{\"wallMillis\":%.3f,\"cpuMillis\":%.3f,\"allocatedBytes\":%d}",
+					stage.name().toLowerCase(Locale.ROOT), getWallNanos(stage) / 1e6, getCpuNanos(stage) / 1e6, getAllocatedBytes(stage)));
+		}
+		return json.append('}').toString();
+	}
+
+	private static long sum(long values[]){
+
+		long sum = 0;
+		for(long value : values){
+			sum += value;
+		}
+		return sum;
+	}
+
+	private static long currentThreadCpuNanos(){
+
+		if(!THREAD_BEAN.isCurrentThreadCpuTimeSupported()){
+			return 0;
+		}
+		return Math.max(0, THREAD_BEAN.getCurrentThreadCpuTime());
+	}
+
+	private static long currentThreadAllocatedBytes(){
+
+		if(!(THREAD_BEAN instanceof com.sun.management.ThreadMXBean)){
+			return 0;
+		}
+
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)THREAD_BEAN;
+		if(!allocationBean.isThreadAllocatedMemoryEnabled()){
+			return 0;
+		}
+		return Math.max(0, allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()));
+	}
+
+}
@@ -0,0 +1,87 @@
+package source;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+//tile source that decodes the requested regions of an image file with an ImageReader, so that only one region
+//is decoded into memory at a time. Formats that can't seek inside the compressed data, such as PNG and JPEG, are
+//decoded from the beginning for every region; full width strips are the cheapest regions to read
+public class ImageReaderTileSource implements TileSource, Closeable {
+
+	private final ImageInputStream inputStream;
+	private final ImageReader reader;
+	private final int width;
+	private final int height;
+
+	public ImageReaderTileSource(File file) throws IOException{
+
+		inputStream = ImageIO.createImageInputStream(file);
+		if(inputStream == null){
+			throw new IOException("cannot open " + file);
+		}
+
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+		if(!readers.hasNext()){
+			inputStream.close();
+			throw new IOException("unsupported image format: " + file);
+		}
+
+		reader = readers.next();
+		reader.setInput(inputStream);
+		width = reader.getWidth(0);
+		height = reader.getHeight(0);
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	//returns the BufferedImage type the image decodes to, TYPE_INT_RGB if the reader uses a custom type
+	public int getImageType() throws IOException{
+
+		Iterator<ImageTypeSpecifier> imageTypes = reader.getImageTypes(0);
+		if(imageTypes.hasNext()){
+			int imageType = imageTypes.next().getBufferedImageType();
+			if(imageType != BufferedImage.TYPE_CUSTOM){
+				return imageType;
+			}
+		}
+		return BufferedImage.TYPE_INT_RGB;
+	}
+
+	public void readRegion(int x, int y, int width, int height, int pixels[]) throws IOException{
+
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(new Rectangle(x, y, width, height));
+		BufferedImage region = reader.read(0, param);
+		region.getRGB(0, 0, width, height, pixels, 0, width);
+	}
+
+	public int[] readSubsampled(int stride) throws IOException{
+
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceSubsampling(stride, stride, 0, 0);
+		BufferedImage sample = reader.read(0, param);
+		return sample.getRGB(0, 0, sample.getWidth(), sample.getHeight(), null, 0, sample.getWidth());
+	}
+
+	public void close() throws IOException{
+		reader.dispose();
+		inputStream.close();
+	}
+
+}
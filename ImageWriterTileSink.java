@@ -0,0 +1,134 @@
+package source;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+//tile sink that writes the regions straight into an image file, so the image is never held in memory as a whole.
+//The file is written empty first and the regions replace its pixels, which only image writers that can write empty
+//images and replace pixels support; of the JDK's writers that is the TIFF writer. isSupported tells whether a
+//format can be written this way. The file is laid out in tiles of the region size and a region has to replace
+//whole tiles, so the regions have to be the size given to the constructor, apart from the last ones in a row or
+//column, and that size has to be a multiple of REGION_ALIGNMENT unless it covers the image.
+public class ImageWriterTileSink implements TileSink, Closeable {
+
+	//TIFF tiles are a multiple of 16 pixels wide and high
+	public static final int REGION_ALIGNMENT = 16;
+
+	private final ImageWriter writer;
+	private final ImageOutputStream output;
+	private final int imageType;
+
+	//creates the file with an empty image of the given size and type, in the format given by formatName, that is
+	//written regionWidth x regionHeight pixels at a time
+	public ImageWriterTileSink(File file, String formatName, int imageWidth, int imageHeight, int regionWidth, int regionHeight, int imageType) throws IOException{
+
+		if((regionWidth % REGION_ALIGNMENT != 0 && regionWidth < imageWidth) || (regionHeight % REGION_ALIGNMENT != 0 && regionHeight < imageHeight)){
+			throw new IllegalArgumentException("region size must be a multiple of " + REGION_ALIGNMENT + ": " + regionWidth + "x" + regionHeight);
+		}
+		if(imageType == BufferedImage.TYPE_CUSTOM){
+			imageType = BufferedImage.TYPE_INT_ARGB;
+		}
+
+		if(file.exists() && !file.delete()){
+			throw new IOException("cannot replace " + file);
+		}
+		ImageOutputStream output = ImageIO.createImageOutputStream(file);
+		if(output == null){
+			throw new IOException("cannot create " + file);
+		}
+
+		ImageWriter writer = getWriter(formatName, output);
+		if(writer == null){
+			output.close();
+			throw new IOException("no image writer that can write " + formatName + " a region at a time");
+		}
+
+		try{
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if(param.canWriteTiles()){
+				param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setTiling(regionWidth, regionHeight, 0, 0);
+			}
+			writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromBufferedImageType(imageType), imageWidth, imageHeight, null, null, param);
+			writer.prepareReplacePixels(0, new Rectangle(0, 0, imageWidth, imageHeight));
+		}catch(IOException ex){
+			writer.dispose();
+			output.close();
+			throw ex;
+		}
+
+		this.writer = writer;
+		this.output = output;
+		this.imageType = imageType;
+	}
+
+	//whether images of the given format can be written a region at a time
+	public static boolean isSupported(String formatName){
+
+		try{
+			ImageOutputStream output = new MemoryCacheImageOutputStream(new ByteArrayOutputStream());
+			try{
+				ImageWriter writer = getWriter(formatName, output);
+				if(writer == null){
+					return false;
+				}
+				writer.dispose();
+				return true;
+			}finally{
+				output.close();
+			}
+		}catch(IOException ex){
+			return false;
+		}
+	}
+
+	//returns a writer of the format that writes to output and can write empty images, or null
+	private static ImageWriter getWriter(String formatName, ImageOutputStream output) throws IOException{
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+		while(writers.hasNext()){
+			ImageWriter writer = writers.next();
+			writer.setOutput(output);
+			if(writer.canWriteEmpty()){
+				return writer;
+			}
+			writer.dispose();
+		}
+		return null;
+	}
+
+	public void writeRegion(int x, int y, int width, int height, int pixels[]) throws IOException{
+
+		//the region only has to be copied for the image types whose pixels aren't packed ints
+		BufferedImage region = RasterPixels.createImage(pixels, width, height, imageType);
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setDestinationOffset(new Point(x, y));
+		writer.replacePixels(region, param);
+	}
+
+	//finishes the file
+	public void close() throws IOException{
+
+		try{
+			writer.endReplacePixels();
+			writer.endWriteEmpty();
+		}finally{
+			writer.dispose();
+			output.close();
+		}
+	}
+
+}
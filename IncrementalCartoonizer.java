@@ -0,0 +1,152 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+//cartoonizer for tuning the parameters on one image. The segmentation, the median filtered image and the gradient
+//magnitudes of the edge detection are kept in a StageCache, keyed by the image and the parameters they depend on,
+//so changing a parameter only reruns the stages after it: a new edge threshold only thresholds the cached
+//magnitudes, and a new median window reuses the cached segmentation. The image is identified by its BufferedImage
+//object, so it must not be modified while its results are cached. The segmentation settings of the Filters must
+//not change either, the cache has to be cleared when they do.
+public class IncrementalCartoonizer {
+
+	private final Filters filters;
+	private final StageCache cache;
+	//time and allocations of the stages that were run, cached stages take no time
+	private final PipelineMetrics metrics = new PipelineMetrics();
+
+	//cached segmentation, the cluster index of every pixel and the cluster centers
+	private static class Segmentation{
+
+		final int labels[];
+		final int centersRed[];
+		final int centersGreen[];
+		final int centersBlue[];
+
+		Segmentation(int labels[], KMeansSegmenter segmenter){
+			this.labels = labels;
+			this.centersRed = segmenter.getCentersRed().clone();
+			this.centersGreen = segmenter.getCentersGreen().clone();
+			this.centersBlue = segmenter.getCentersBlue().clone();
+		}
+
+		long getBytes(){
+			return 4L * (labels.length + 3 * centersRed.length);
+		}
+	}
+
+	public IncrementalCartoonizer(Filters filters, StageCache cache){
+
+		this.filters = filters;
+		this.cache = cache;
+	}
+
+	public StageCache getCache(){
+		return cache;
+	}
+
+	public PipelineMetrics getMetrics(){
+		return metrics;
+	}
+
+	//cartoonizes image with the given parameters and the Sobel edge detector, reusing the cached results of the
+	//stages whose parameters didn't change. The progress of the stages that run is reported to the listener, which
+	//may be null
+	public BufferedImage cartoonizeImage(BufferedImage image, int clusterCount, int medianWindowWidth, int medianWindowHeight, int edgeThreshold,
+			ProgressListener progressListener){
+		return cartoonizeImage(image, clusterCount, medianWindowWidth, medianWindowHeight, edgeThreshold, EdgeDetector.SOBEL, progressListener);
+	}
+
+	//cartoonizes like cartoonizeImage(image, clusterCount, medianWindowWidth, medianWindowHeight, edgeThreshold,
+	//progressListener) with the given edge detector. The gradient magnitudes are cached per detector
+	public BufferedImage cartoonizeImage(BufferedImage image, int clusterCount, int medianWindowWidth, int medianWindowHeight, int edgeThreshold,
+			EdgeDetector edgeDetector, ProgressListener progressListener){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+
+		//each key extends the key of the stage before it
+		Object segmentationKey = Arrays.<Object>asList(image, clusterCount);
+		Object medianKey = Arrays.<Object>asList(segmentationKey, medianWindowWidth, medianWindowHeight);
+		Object gradientKey = Arrays.<Object>asList(medianKey, edgeDetector);
+
+		EdgeStage edgeStage = new EdgeStage(edgeThreshold, edgeDetector, filters.getPixelKernels(), null);
+		ImageMetrics imageMetrics = new ImageMetrics(imageWidth, imageHeight);
+
+		try{
+			int magnitudes[] = (int[])cache.get(gradientKey);
+			int medianPixels[] = (int[])cache.get(medianKey);
+			Segmentation segmentation = null;
+			if(medianPixels == null){
+				imageMetrics.startStage();
+				segmentation = segment(image, segmentationKey, clusterCount, progressListener, imageMetrics);
+				imageMetrics.endStage(ProgressListener.Stage.SEGMENTATION);
+			}
+
+			imageMetrics.startStage();
+			if(magnitudes == null || medianPixels == null){
+
+				if(medianPixels == null){
+					medianPixels = applyMedianFilter(segmentation, imageWidth, imageHeight, medianWindowWidth, medianWindowHeight, progressListener);
+					cache.put(medianKey, medianPixels, 4L * medianPixels.length);
+				}
+
+				magnitudes = new int[imageWidth * imageHeight];
+				edgeStage.computeGradientMagnitudes(medianPixels, imageWidth, imageHeight, magnitudes);
+				cache.put(gradientKey, magnitudes, 4L * magnitudes.length);
+			}
+
+			if(progressListener != null){
+				progressListener.progress(ProgressListener.Stage.FILTERING, imageHeight, imageHeight);
+			}
+
+			int resultPixels[] = new int[imageWidth * imageHeight];
+			edgeStage.applyThreshold(medianPixels, magnitudes, imageWidth, resultPixels);
+			BufferedImage result = RasterPixels.createImage(resultPixels, imageWidth, imageHeight, image.getType());
+			imageMetrics.endStage(ProgressListener.Stage.FILTERING);
+
+			metrics.record(imageMetrics);
+			return result;
+		}catch(RuntimeException ex){
+			metrics.recordFailure();
+			throw ex;
+		}
+	}
+
+	//drops the cached results, needed when an image or the settings of the filters were modified
+	public void clear(){
+		cache.clear();
+	}
+
+	private Segmentation segment(BufferedImage image, Object segmentationKey, int clusterCount, ProgressListener progressListener,
+			ImageMetrics imageMetrics){
+
+		Segmentation segmentation = (Segmentation)cache.get(segmentationKey);
+		if(segmentation != null){
+			return segmentation;
+		}
+
+		int pixels[] = RasterPixels.getPixels(image);
+		int labels[] = new int[pixels.length];
+		KMeansSegmenter segmenter = filters.createSegmentationStage(clusterCount, Filters.SEGMENTATION_LOOP_COUNT).segment(pixels, labels, progressListener);
+		imageMetrics.recordSegmentation(segmenter);
+
+		segmentation = new Segmentation(labels, segmenter);
+		cache.put(segmentationKey, segmentation, segmentation.getBytes());
+		return segmentation;
+	}
+
+	//median filters the segmented image row by row, so that the progress can be reported
+	private int[] applyMedianFilter(Segmentation segmentation, int imageWidth, int imageHeight, int windowWidth, int windowHeight,
+			ProgressListener progressListener){
+
+		PaletteMedianFilter medianFilter = new PaletteMedianFilter(segmentation.labels, imageWidth, imageHeight, windowWidth, windowHeight,
+				segmentation.centersRed, segmentation.centersGreen, segmentation.centersBlue);
+
+		int medianPixels[] = new int[imageWidth * imageHeight];
+		EdgeStage.applyMedianFilter(medianFilter, imageWidth, imageHeight, medianPixels, progressListener);
+		return medianPixels;
+	}
+
+}
@@ -0,0 +1,619 @@
+package source;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//k-means clustering of packed RGB pixels. Cluster membership is kept as one label per pixel and the cluster
+//centers are recomputed from running per-cluster sums, so an iteration doesn't allocate anything.
+//The assignment runs over bands of consecutive pixels on a fork-join pool. Every band accumulates its own partial
+//sums which are added up in band order afterwards; the sums are integers, so the result doesn't depend on the
+//number of threads.
+//Pixels of the same color always end up in the same cluster, so by default the pixels are first reduced to their
+//distinct colors and every iteration assigns each distinct color once, with the sums weighted by the number of
+//pixels of the color. A photo has far fewer distinct colors than pixels, so an iteration costs in proportion to
+//the color diversity of the image rather than its size; the result is the same as assigning every pixel.
+//The nearest center search starts at the point's previous center c and visits the other centers in order of
+//their distance to c. Once a center j is more than twice as far from c as the point is, the triangle inequality
+//gives d(x, j) >= d(c, j) - d(x, c) > d(x, c), so neither j nor any center after it can be nearer and the search
+//stops. The centers it skips are strictly farther, so it finds the same center as a scan over all of them.
+//With vectorized PixelKernels and up to VECTOR_SEARCH_MAX_CLUSTERS clusters, a vector scan over all centers is
+//used instead, which is faster than the pruned scalar search for small k.
+//Reference: http://en.wikipedia.org/wiki/K-means_clustering#Standard_algorithm
+public class KMeansSegmenter {
+
+	//number of pixels in a band, a few hundred rows of a typical photo
+	private static final int BAND_SIZE = 1 << 16;
+
+	//largest number of pixels the k-means++ initialization looks at
+	private static final int SEEDING_SAMPLE_SIZE = 1 << 16;
+
+	//largest number of clusters the vector scan over all centers is used for
+	private static final int VECTOR_SEARCH_MAX_CLUSTERS = 64;
+
+	//largest number of distinct colors the color histogram holds, which bounds its tables to a few tens of MB
+	private static final int MAX_HISTOGRAM_COLORS = 1 << 20;
+
+	private final int k;
+	private final int loopLimit;
+	//pool running the bands, null for single-threaded assignment
+	private final ForkJoinPool pool;
+
+	//color components of cluster centers
+	private final int clusterCentersRed[];
+	private final int clusterCentersGreen[];
+	private final int clusterCentersBlue[];
+
+	//for every center c the indices of all centers ordered by their distance to c, and the squared distances.
+	//The entries of center c are from c * k to (c + 1) * k
+	private final int neighborIndices[];
+	private final int neighborDistances[];
+
+	//running sums of the pixels assigned to each cluster
+	private final long sumOfReds[];
+	private final long sumOfGreens[];
+	private final long sumOfBlues[];
+	private final int clusterSizes[];
+
+	//partial sums of each band, band b uses the elements from b * k to (b + 1) * k
+	private int bandCount;
+	private long bandSumOfReds[];
+	private long bandSumOfGreens[];
+	private long bandSumOfBlues[];
+	private int bandClusterSizes[];
+	private boolean bandElementChanged[];
+
+	//number of iterations run by the last call to segment, not counting the initial assignment
+	private int iterationCount;
+
+	//segment stops when no center moves farther than this distance
+	private double convergenceThreshold;
+
+	//whether the pixels are reduced to their distinct colors before they are assigned
+	private boolean colorHistogramEnabled = true;
+	//distinct colors of the last pixels and their labels, kept for the next call
+	private final ColorHistogram colorHistogram = new ColorHistogram();
+	private int colorLabels[] = new int[0];
+	//distances of the k-means++ initialization, kept for the next call
+	private int seedingDistances[] = new int[0];
+
+	private PixelKernels kernels = PixelKernels.getInstance();
+	//receives the iterations of segment, or null
+	private ProgressListener progressListener;
+	//nearest centers found by the vector scan, one per point
+	private int nearestCenters[];
+
+	public KMeansSegmenter(int k, int loopLimit){
+		this(k, loopLimit, null);
+	}
+
+	//creates a segmenter that runs the assignment on the given pool. The pool may be null to use a single thread
+	public KMeansSegmenter(int k, int loopLimit, ForkJoinPool pool){
+
+		if(k < 1){
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+
+		this.k = k;
+		this.loopLimit = loopLimit;
+		this.pool = pool;
+
+		clusterCentersRed = new int[k];
+		clusterCentersGreen = new int[k];
+		clusterCentersBlue = new int[k];
+
+		neighborIndices = new int[k * k];
+		neighborDistances = new int[k * k];
+
+		sumOfReds = new long[k];
+		sumOfGreens = new long[k];
+		sumOfBlues = new long[k];
+		clusterSizes = new int[k];
+	}
+
+	public int getClusterCount(){
+		return k;
+	}
+
+	//sets the initial cluster centers
+	public void setCenters(int centersRed[], int centersGreen[], int centersBlue[]){
+
+		System.arraycopy(centersRed, 0, clusterCentersRed, 0, k);
+		System.arraycopy(centersGreen, 0, clusterCentersGreen, 0, k);
+		System.arraycopy(centersBlue, 0, clusterCentersBlue, 0, k);
+	}
+
+	//initializes the cluster centers with k-means++: the first center is a random pixel and every further center
+	//is a pixel picked with probability proportional to its squared distance to the nearest center chosen so far.
+	//Large pixel arrays are strided down to SEEDING_SAMPLE_SIZE pixels first.
+	//Reference: D. Arthur and S. Vassilvitskii, "k-means++: The Advantages of Careful Seeding", SODA 2007
+	public void setKMeansPlusPlusCenters(int pixels[], Random random){
+
+		int stride = Math.max(1, (pixels.length + SEEDING_SAMPLE_SIZE - 1) / SEEDING_SAMPLE_SIZE);
+		int sampleSize = (pixels.length + stride - 1) / stride;
+
+		//squared distance of every sampled pixel to its nearest center
+		if(seedingDistances.length < sampleSize){
+			seedingDistances = new int[sampleSize];
+		}
+		int distances[] = seedingDistances;
+		for(int i = 0; i < sampleSize; i++){
+			distances[i] = Integer.MAX_VALUE;
+		}
+
+		int chosenPixel = pixels[random.nextInt(sampleSize) * stride];
+		for(int center = 0; center < k; center++){
+
+			if(center > 0){
+				long totalDistance = 0;
+				for(int i = 0; i < sampleSize; i++){
+					totalDistance += distances[i];
+				}
+
+				int chosenIndex;
+				if(totalDistance == 0){
+					//fewer distinct colors than clusters, the remaining clusters will stay empty
+					chosenIndex = random.nextInt(sampleSize);
+				}else{
+					long target = (long)(random.nextDouble() * totalDistance);
+					chosenIndex = 0;
+					while(target >= distances[chosenIndex]){
+						target -= distances[chosenIndex];
+						chosenIndex++;
+					}
+				}
+				chosenPixel = pixels[chosenIndex * stride];
+			}
+
+			clusterCentersRed[center] = (chosenPixel >> 16) & 0xff;
+			clusterCentersGreen[center] = (chosenPixel >> 8) & 0xff;
+			clusterCentersBlue[center] = chosenPixel & 0xff;
+
+			for(int i = 0; i < sampleSize; i++){
+				int currentPixel = pixels[i * stride];
+				int differenceRed = ((currentPixel >> 16) & 0xff) - clusterCentersRed[center];
+				int differenceGreen = ((currentPixel >> 8) & 0xff) - clusterCentersGreen[center];
+				int differenceBlue = (currentPixel & 0xff) - clusterCentersBlue[center];
+				int currentDistance = differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue;
+				if(currentDistance < distances[i]){
+					distances[i] = currentDistance;
+				}
+			}
+		}
+	}
+
+	//returns a sample of the given fraction of the pixels. The sample takes every n-th pixel if random is null,
+	//otherwise pixels picked at random
+	public static int[] samplePixels(int pixels[], double fraction, Random random){
+
+		int sample[] = new int[getSampleSize(pixels.length, fraction)];
+		samplePixels(pixels, random, sample);
+		return sample;
+	}
+
+	//returns the number of pixels in a sample of the given fraction of the pixels
+	public static int getSampleSize(int pixelCount, double fraction){
+
+		if(fraction <= 0 || fraction > 1){
+			throw new IllegalArgumentException("sample fraction must be in (0, 1]: " + fraction);
+		}
+		return Math.max(1, (int)(pixelCount * fraction));
+	}
+
+	//fills sample with a sample of the pixels, the same as samplePixels(pixels, fraction, random) for a fraction
+	//that gives the length of sample
+	public static void samplePixels(int pixels[], Random random, int sample[]){
+
+		int sampleSize = sample.length;
+		for(int i = 0; i < sampleSize; i++){
+			int pixelIndex = random == null ? (int)((long)i * pixels.length / sampleSize) : random.nextInt(pixels.length);
+			sample[i] = pixels[pixelIndex];
+		}
+	}
+
+	//segment stops once no center moves farther than the given distance in an iteration. With the default of 0 it
+	//stops when the centers don't move at all, which is when no pixel would change its cluster any more
+	public void setConvergenceThreshold(double convergenceThreshold){
+		this.convergenceThreshold = convergenceThreshold;
+	}
+
+	//enables or disables reducing the pixels to their distinct colors. The labels are the same either way
+	public void setColorHistogramEnabled(boolean colorHistogramEnabled){
+		this.colorHistogramEnabled = colorHistogramEnabled;
+	}
+
+	public void setPixelKernels(PixelKernels kernels){
+		this.kernels = kernels;
+	}
+
+	//reports the iterations of segment to the listener, which may cancel them. listener may be null
+	public void setProgressListener(ProgressListener progressListener){
+		this.progressListener = progressListener;
+	}
+
+	//bytes held by the arrays the segmenter keeps for the next call, whose size depends on the number of pixels
+	public long getPixelArrayBytes(){
+
+		long bytes = colorHistogram.getArrayBytes() + 4L * (colorLabels.length + seedingDistances.length);
+		if(nearestCenters != null){
+			bytes += 4L * nearestCenters.length;
+		}
+		if(bandElementChanged != null){
+			bytes += 8L * (bandSumOfReds.length + bandSumOfGreens.length + bandSumOfBlues.length) + 4L * bandClusterSizes.length + bandElementChanged.length;
+		}
+		return bytes;
+	}
+
+	public int[] getCentersRed(){
+		return clusterCentersRed;
+	}
+
+	public int[] getCentersGreen(){
+		return clusterCentersGreen;
+	}
+
+	public int[] getCentersBlue(){
+		return clusterCentersBlue;
+	}
+
+	public int getIterationCount(){
+		return iterationCount;
+	}
+
+	//returns the number of clusters that have no pixel after the last assignment
+	public int getEmptyClusterCount(){
+
+		int emptyClusterCount = 0;
+		for(int i = 0; i < k; i++){
+			if(clusterSizes[i] == 0){
+				emptyClusterCount++;
+			}
+		}
+		return emptyClusterCount;
+	}
+
+	//clusters the given pixels starting from the current centers. On return labels holds the cluster index of
+	//every pixel and the centers are the means of their clusters
+	public void segment(int pixels[], int labels[]){
+
+		if(!buildColorHistogram(pixels, labels)){
+			segment(pixels, null, pixels.length, labels);
+			return;
+		}
+
+		//cluster the distinct colors, then give every pixel the label of its color
+		segment(colorHistogram.getColors(), colorHistogram.getCounts(), colorHistogram.size(), colorLabels);
+		expandLabels(labels);
+	}
+
+	//assigns every pixel to its nearest cluster center without moving the centers
+	public void assign(int pixels[], int labels[]){
+
+		if(!buildColorHistogram(pixels, labels)){
+			assign(pixels, null, pixels.length, labels, true);
+			return;
+		}
+
+		assign(colorHistogram.getColors(), colorHistogram.getCounts(), colorHistogram.size(), colorLabels, true);
+		expandLabels(labels);
+	}
+
+	//collects the distinct colors of the pixels and stores the index of every pixel's color in labels. Returns
+	//false if the pixels should be assigned one by one
+	private boolean buildColorHistogram(int pixels[], int labels[]){
+
+		if(!colorHistogramEnabled){
+			return false;
+		}
+
+		//give up when there are so many distinct colors that the histogram saves little
+		if(!colorHistogram.build(pixels, labels, Math.min(pixels.length / 8, MAX_HISTOGRAM_COLORS))){
+			return false;
+		}
+
+		if(colorLabels.length < colorHistogram.size()){
+			colorLabels = new int[colorHistogram.getColors().length];
+		}
+		return true;
+	}
+
+	//replaces the color index of every pixel with the label of its color
+	private void expandLabels(int labels[]){
+
+		for(int i = 0; i < labels.length; i++){
+			labels[i] = colorLabels[labels[i]];
+		}
+	}
+
+	//clusters the first count points, each of which stands for the number of pixels given by its weight. weights
+	//may be null if every point is a single pixel
+	private void segment(int points[], int weights[], int count, int labels[]){
+
+		//populate the clusters at the beginning
+		assign(points, weights, count, labels, true);
+		updateCenters();
+
+		//repeat until no element changed its cluster or the centers converged
+		iterationCount = 0;
+		while(iterationCount < loopLimit){
+
+			reportProgress(iterationCount);
+
+			boolean elementChanged = assign(points, weights, count, labels, false);
+
+			//break loop if no element changed its cluster
+			if(elementChanged == false){
+				break;
+			}
+
+			int largestMovement = updateCenters();
+			iterationCount++;
+
+			if(largestMovement <= convergenceThreshold * convergenceThreshold){
+				break;
+			}
+		}
+
+		reportProgress(loopLimit);
+	}
+
+	//reports that the given number of iterations is done, and throws a CancellationException if the listener
+	//cancelled the segmentation
+	private void reportProgress(int doneIterations){
+
+		if(progressListener != null){
+			if(progressListener.isCancelled()){
+				throw new CancellationException("segmentation cancelled");
+			}
+			progressListener.progress(ProgressListener.Stage.SEGMENTATION, doneIterations, loopLimit);
+		}
+	}
+
+	//writes the center color of each pixel's cluster into result, which may be the pixel array itself
+	public void render(int labels[], int result[]){
+
+		int clusterColors[] = new int[k];
+		for(int i = 0; i < k; i++){
+			clusterColors[i] = 0xff000000 | (clusterCentersRed[i] << 16) | (clusterCentersGreen[i] << 8) | clusterCentersBlue[i];
+		}
+
+		for(int i = 0; i < labels.length; i++){
+			result[i] = clusterColors[labels[i]];
+		}
+	}
+
+	//assigns the first count points to the cluster whose center has the smallest Euclidean distance and
+	//accumulates the cluster sums, weighted by the number of pixels of each point. Returns true if any point
+	//changed its cluster
+	private boolean assign(int points[], int weights[], int count, int labels[], boolean initial){
+
+		boolean vectorSearch = kernels.isVectorized() && k <= VECTOR_SEARCH_MAX_CLUSTERS;
+		if(vectorSearch){
+			if(nearestCenters == null || nearestCenters.length < count){
+				nearestCenters = new int[count];
+			}
+		}else{
+			sortNeighbors();
+		}
+
+		//the band arrays only grow, so that a segmenter that is used again doesn't allocate
+		bandCount = Math.max(1, (count + BAND_SIZE - 1) / BAND_SIZE);
+		if(bandElementChanged == null || bandElementChanged.length < bandCount){
+			bandSumOfReds = new long[bandCount * k];
+			bandSumOfGreens = new long[bandCount * k];
+			bandSumOfBlues = new long[bandCount * k];
+			bandClusterSizes = new int[bandCount * k];
+			bandElementChanged = new boolean[bandCount];
+		}
+
+		if(pool == null || bandCount == 1){
+			for(int band = 0; band < bandCount; band++){
+				assignBand(points, weights, count, labels, initial, vectorSearch, band);
+			}
+		}else{
+			pool.invoke(new AssignTask(points, weights, count, labels, initial, vectorSearch, 0, bandCount));
+		}
+
+		//reduce the partial sums of the bands
+		for(int i = 0; i < k; i++){
+			sumOfReds[i] = 0;
+			sumOfGreens[i] = 0;
+			sumOfBlues[i] = 0;
+			clusterSizes[i] = 0;
+		}
+
+		boolean elementChanged = false;
+		for(int band = 0; band < bandCount; band++){
+
+			int bandOffset = band * k;
+			for(int i = 0; i < k; i++){
+				sumOfReds[i] += bandSumOfReds[bandOffset + i];
+				sumOfGreens[i] += bandSumOfGreens[bandOffset + i];
+				sumOfBlues[i] += bandSumOfBlues[bandOffset + i];
+				clusterSizes[i] += bandClusterSizes[bandOffset + i];
+			}
+			elementChanged |= bandElementChanged[band];
+		}
+
+		return elementChanged;
+	}
+
+	//assigns the points of one band and stores the partial sums of the band
+	private void assignBand(int points[], int weights[], int count, int labels[], boolean initial, boolean vectorSearch, int band){
+
+		int bandOffset = band * k;
+		for(int i = 0; i < k; i++){
+			bandSumOfReds[bandOffset + i] = 0;
+			bandSumOfGreens[bandOffset + i] = 0;
+			bandSumOfBlues[bandOffset + i] = 0;
+			bandClusterSizes[bandOffset + i] = 0;
+		}
+
+		int bandStart = band * BAND_SIZE;
+		int bandEnd = Math.min(count, bandStart + BAND_SIZE);
+
+		if(vectorSearch){
+			kernels.nearestCenters(points, bandStart, bandEnd - bandStart, clusterCentersRed, clusterCentersGreen, clusterCentersBlue, nearestCenters);
+		}
+
+		//the first point of the band starts its search at center 0, every other point at its previous center, or
+		//in the initial assignment at the center of the point before it, which usually has a similar color
+		int previousCenterIndex = 0;
+
+		boolean elementChanged = false;
+		for(int i = bandStart; i < bandEnd; i++){
+
+			int currentPixel = points[i];
+			int currentPixelRed = (currentPixel >> 16) & 0xff;
+			int currentPixelGreen = (currentPixel >> 8) & 0xff;
+			int currentPixelBlue = currentPixel & 0xff;
+
+			int nearestCenterIndex;
+			if(vectorSearch){
+				nearestCenterIndex = nearestCenters[i];
+			}else{
+				int startCenterIndex = initial ? previousCenterIndex : labels[i];
+				nearestCenterIndex = nearestCenter(currentPixelRed, currentPixelGreen, currentPixelBlue, startCenterIndex);
+				previousCenterIndex = nearestCenterIndex;
+			}
+
+			if(initial || labels[i] != nearestCenterIndex){
+				labels[i] = nearestCenterIndex;
+				elementChanged = true;
+			}
+
+			int weight = weights == null ? 1 : weights[i];
+			bandSumOfReds[bandOffset + nearestCenterIndex] += (long)currentPixelRed * weight;
+			bandSumOfGreens[bandOffset + nearestCenterIndex] += (long)currentPixelGreen * weight;
+			bandSumOfBlues[bandOffset + nearestCenterIndex] += (long)currentPixelBlue * weight;
+			bandClusterSizes[bandOffset + nearestCenterIndex] += weight;
+		}
+
+		bandElementChanged[band] = elementChanged;
+	}
+
+	//splits a range of bands in halves until a single band is left
+	private class AssignTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		private final int points[];
+		private final int weights[];
+		private final int count;
+		private final int labels[];
+		private final boolean initial;
+		private final boolean vectorSearch;
+		private final int firstBand;
+		private final int lastBand;
+
+		AssignTask(int points[], int weights[], int count, int labels[], boolean initial, boolean vectorSearch, int firstBand, int lastBand){
+			this.points = points;
+			this.weights = weights;
+			this.count = count;
+			this.labels = labels;
+			this.initial = initial;
+			this.vectorSearch = vectorSearch;
+			this.firstBand = firstBand;
+			this.lastBand = lastBand;
+		}
+
+		protected void compute(){
+
+			if(lastBand - firstBand == 1){
+				assignBand(points, weights, count, labels, initial, vectorSearch, firstBand);
+			}else{
+				int middleBand = (firstBand + lastBand) / 2;
+				invokeAll(new AssignTask(points, weights, count, labels, initial, vectorSearch, firstBand, middleBand),
+						new AssignTask(points, weights, count, labels, initial, vectorSearch, middleBand, lastBand));
+			}
+		}
+	}
+
+	//orders the centers by their distance to each center
+	private void sortNeighbors(){
+
+		//the squared distance and the index of a center packed into one value sort by distance, then by index
+		long neighbors[] = new long[k];
+		for(int i = 0; i < k; i++){
+
+			for(int j = 0; j < k; j++){
+				int differenceRed = clusterCentersRed[i] - clusterCentersRed[j];
+				int differenceGreen = clusterCentersGreen[i] - clusterCentersGreen[j];
+				int differenceBlue = clusterCentersBlue[i] - clusterCentersBlue[j];
+				int distance = differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue;
+				neighbors[j] = ((long)distance << 32) | j;
+			}
+			Arrays.sort(neighbors);
+
+			for(int j = 0; j < k; j++){
+				neighborIndices[i * k + j] = (int)neighbors[j];
+				neighborDistances[i * k + j] = (int)(neighbors[j] >>> 32);
+			}
+		}
+	}
+
+	//returns the index of the cluster center that has the smallest Euclidean distance to the given color, starting
+	//the search at the given center. Squared distances are compared, which orders the centers the same way as the
+	//distances themselves; on ties the lowest index wins
+	private int nearestCenter(int red, int green, int blue, int startCenterIndex){
+
+		int differenceRed = red - clusterCentersRed[startCenterIndex];
+		int differenceGreen = green - clusterCentersGreen[startCenterIndex];
+		int differenceBlue = blue - clusterCentersBlue[startCenterIndex];
+		int startDistance = differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue;
+
+		//centers whose squared distance to the start center exceeds 4 * startDistance are farther than twice the
+		//distance of the color to the start center
+		int pruningDistance = 4 * startDistance;
+
+		int nearestCenterIndex = startCenterIndex;
+		int smallestDistance = startDistance;
+		int neighborOffset = startCenterIndex * k;
+		for(int n = 0; n < k; n++){
+
+			if(neighborDistances[neighborOffset + n] > pruningDistance){
+				break;
+			}
+
+			int i = neighborIndices[neighborOffset + n];
+			differenceRed = red - clusterCentersRed[i];
+			differenceGreen = green - clusterCentersGreen[i];
+			differenceBlue = blue - clusterCentersBlue[i];
+			int currentDistance = differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue;
+
+			if(currentDistance < smallestDistance || (currentDistance == smallestDistance && i < nearestCenterIndex)){
+				smallestDistance = currentDistance;
+				nearestCenterIndex = i;
+			}
+		}
+		return nearestCenterIndex;
+	}
+
+	//re-computes cluster centers as the integer means of their clusters. Empty clusters keep their center.
+	//Returns the largest squared distance a center moved
+	private int updateCenters(){
+
+		int largestMovement = 0;
+		for(int i = 0; i < k; i++){
+			if(clusterSizes[i] != 0){
+
+				int newCenterRed = (int)(sumOfReds[i] / clusterSizes[i]);
+				int newCenterGreen = (int)(sumOfGreens[i] / clusterSizes[i]);
+				int newCenterBlue = (int)(sumOfBlues[i] / clusterSizes[i]);
+
+				int differenceRed = newCenterRed - clusterCentersRed[i];
+				int differenceGreen = newCenterGreen - clusterCentersGreen[i];
+				int differenceBlue = newCenterBlue - clusterCentersBlue[i];
+				largestMovement = Math.max(largestMovement, differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue);
+
+				clusterCentersRed[i] = newCenterRed;
+				clusterCentersGreen[i] = newCenterGreen;
+				clusterCentersBlue[i] = newCenterBlue;
+			}
+		}
+		return largestMovement;
+	}
+
+}
@@ -0,0 +1,59 @@
+package source;
+
+import java.util.Arrays;
+
+//keeps the most recent latencies in a ring buffer and computes percentiles over them, so the percentiles follow the
+//current load instead of averaging over the whole uptime. The recorder is thread-safe.
+public class LatencyRecorder {
+
+	//latencies in nanoseconds, only the first size elements are used and next is the oldest once the buffer is full
+	private final long latencies[];
+	private int size;
+	private int next;
+	private long count;
+
+	//keeps the latest capacity latencies
+	public LatencyRecorder(int capacity){
+
+		if(capacity < 1){
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		latencies = new long[capacity];
+	}
+
+	public synchronized void record(long nanos){
+
+		latencies[next] = nanos;
+		next = (next + 1) % latencies.length;
+		size = Math.min(size + 1, latencies.length);
+		count++;
+	}
+
+	//number of latencies recorded so far, including the ones that are no longer kept
+	public synchronized long getCount(){
+		return count;
+	}
+
+	//returns for every fraction the latency that this fraction of the kept latencies doesn't exceed, in
+	//nanoseconds, e.g. {0.5, 0.99} gives the median and the 99th percentile. The percentiles are 0 if no latency
+	//was recorded
+	public long[] getPercentiles(double fractions[]){
+
+		long sortedLatencies[];
+		synchronized(this){
+			sortedLatencies = Arrays.copyOf(latencies, size);
+		}
+		Arrays.sort(sortedLatencies);
+
+		long percentiles[] = new long[fractions.length];
+		for(int i = 0; i < fractions.length; i++){
+			if(sortedLatencies.length > 0){
+				//nearest rank
+				int rank = (int)Math.ceil(fractions[i] * sortedLatencies.length);
+				percentiles[i] = sortedLatencies[Math.max(0, Math.min(sortedLatencies.length - 1, rank - 1))];
+			}
+		}
+		return percentiles;
+	}
+
+}
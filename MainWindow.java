@@ -1,19 +1,39 @@
 package source;
 
 import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
+import javax.management.JMException;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSlider;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -21,13 +41,44 @@ public class MainWindow extends JFrame{
 	
 	private static final long serialVersionUID = 1L;
 	
+	//largest width or height of the preview that is cartoonized before the full resolution image
+	static final int PREVIEW_DIMENSION = 480;
+	
+	//cartoonizer that keeps the stage results of the opened image, so that the parameters can be tuned. The cache
+	//size in megabytes is set by the system property cartoonizer.cacheMegabytes
+	private final IncrementalCartoonizer cartoonizer = new IncrementalCartoonizer(new Filters(),
+			new StageCache(Long.getLong("cartoonizer.cacheMegabytes", 256) << 20));
+	//opened image and its scaled down copy for the preview, the cartoonization always starts from them
+	private BufferedImage originalImage;
+	private BufferedImage previewImage;
+	//parameters of the cartoonization
+	private final JSpinner clusterCountSpinner = new JSpinner(new SpinnerNumberModel(Filters.SEGMENTATION_CLUSTER_COUNT, 2, 256, 1));
+	private final JSpinner medianWindowSpinner = new JSpinner(new SpinnerNumberModel(Filters.MEDIAN_FILTER_WINDOW_WIDTH, 1, 31, 2));
+	//the slider ends at the largest gradient magnitude of the selected detector
+	private final JComboBox<EdgeDetector> edgeDetectorComboBox = new JComboBox<EdgeDetector>(EdgeDetector.values());
+	private final JSlider edgeThresholdSlider = new JSlider(0, ((EdgeDetector)edgeDetectorComboBox.getSelectedItem()).getMaxMagnitude(),
+			Filters.EDGE_DETECTION_THRESHOLD);
+	//largest width or height images are decoded to when they are opened, 0 decodes them in full size
+	private final JSpinner maxDimensionSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 65536, 240));
+	//image wrapper for holding image of the label
+	private final ImageWrapper imageWrapper = new ImageWrapper();
+	//JLabel for displaying image
+	private final JLabel imageLabel = new JLabel("   ");
+	//progress of the running cartoonization and what it is doing
+	private final JProgressBar progressBar = new JProgressBar(0, 100);
+	private final JLabel statusLabel = new JLabel("Ready");
+	//the running cartoonization, or null
+	private CartoonizeWorker worker;
+	
 	public MainWindow(int windowWidth, int windowHeight){
 		
-		//image wrapper for holding image of the label
-		final ImageWrapper imageWrapper = new ImageWrapper();
-		//filters
-		final Filters filters = new Filters();
-				
+		//the metrics of the cartoonizations can be watched with jconsole
+		try{
+			cartoonizer.getMetrics().register("gui");
+		}catch(JMException ex){
+			showError("Cannot register the metrics", ex);
+		}
+		
 		//set title and size of main window
 		setTitle("PhotoCartoonizer");
 		setSize(windowWidth, windowHeight);
@@ -38,7 +89,7 @@ public class MainWindow extends JFrame{
 		//BorderLayout for image
 		BorderLayout imageLayout = new BorderLayout();
 		//GridLayout for buttons
-		GridLayout buttonsLayout = new GridLayout(3, 1);
+		GridLayout buttonsLayout = new GridLayout(4, 1);
 		
 		//JPanel as main panel
 		JPanel mainPanel = new JPanel(mainLayout);
@@ -48,12 +99,51 @@ public class MainWindow extends JFrame{
 		JPanel imagePanel = new JPanel(imageLayout);
 		mainPanel.add(imagePanel, BorderLayout.CENTER);
 		
-		//JPanel for displaying buttons
+		//JPanel for displaying buttons and progress
+		JPanel controlsPanel = new JPanel(new BorderLayout());
+		mainPanel.add(controlsPanel, BorderLayout.PAGE_END);
 		JPanel buttonsPanel = new JPanel(buttonsLayout);
-		mainPanel.add(buttonsPanel, BorderLayout.PAGE_END);
+		controlsPanel.add(buttonsPanel, BorderLayout.CENTER);
+		
+		//parameters above the buttons, changing them cartoonizes the image again once it was cartoonized
+		JPanel parametersPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+		parametersPanel.add(new JLabel("Clusters"));
+		parametersPanel.add(clusterCountSpinner);
+		parametersPanel.add(new JLabel("Median window"));
+		parametersPanel.add(medianWindowSpinner);
+		parametersPanel.add(new JLabel("Edge threshold"));
+		parametersPanel.add(edgeThresholdSlider);
+		parametersPanel.add(new JLabel("Edge detector"));
+		parametersPanel.add(edgeDetectorComboBox);
+		parametersPanel.add(new JLabel("Open at max size (0 = full)"));
+		parametersPanel.add(maxDimensionSpinner);
+		controlsPanel.add(parametersPanel, BorderLayout.PAGE_START);
+		
+		ChangeListener parameterListener = new ChangeListener(){
+			public void stateChanged(ChangeEvent e){
+				if(worker != null || imageWrapper.getImage() != originalImage){
+					startCartoonization();
+				}
+			}
+		};
+		clusterCountSpinner.addChangeListener(parameterListener);
+		medianWindowSpinner.addChangeListener(parameterListener);
+		edgeThresholdSlider.addChangeListener(parameterListener);
+		edgeDetectorComboBox.addActionListener(new ActionListener(){
+			public void actionPerformed(ActionEvent e){
+				edgeThresholdSlider.setMaximum(((EdgeDetector)edgeDetectorComboBox.getSelectedItem()).getMaxMagnitude());
+				if(worker != null || imageWrapper.getImage() != originalImage){
+					startCartoonization();
+				}
+			}
+		});
+		
+		//progress bar and status below the buttons
+		JPanel progressPanel = new JPanel(new BorderLayout());
+		progressPanel.add(progressBar, BorderLayout.CENTER);
+		progressPanel.add(statusLabel, BorderLayout.LINE_END);
+		controlsPanel.add(progressPanel, BorderLayout.PAGE_END);
 		
-		//JLabel for displaying image
-		final JLabel imageLabel = new JLabel("   ");
 		imagePanel.add(imageLabel, BorderLayout.CENTER);
 		
 		//button for opening image
@@ -66,8 +156,20 @@ public class MainWindow extends JFrame{
 					int fileChooserStatus = fileChooser.showOpenDialog(null);
 					
 					if(fileChooserStatus == JFileChooser.APPROVE_OPTION){
+						//the running cartoonization and the cached results belong to the previous image
+						cancelCartoonization();
+						cartoonizer.clear();
+						
 						//set image of imageWrapper and set icon of the label
-						BufferedImage bufferedImage = ImageIO.read(fileChooser.getSelectedFile());
+						//large images are decoded at a reduced resolution if a max size is set
+						int maxDimension = (Integer)maxDimensionSpinner.getValue();
+						BufferedImage bufferedImage = maxDimension > 0 ? SubsampledDecoder.read(fileChooser.getSelectedFile(), maxDimension)
+								: ImageIO.read(fileChooser.getSelectedFile());
+						if(bufferedImage == null){
+							throw new IOException("unsupported image format: " + fileChooser.getSelectedFile().getName());
+						}
+						originalImage = bufferedImage;
+						previewImage = AreaDownscaler.scaleToMaxDimension(bufferedImage, PREVIEW_DIMENSION);
 						imageWrapper.setImage(bufferedImage);
 						imageLabel.setIcon(new ImageIcon(bufferedImage));						
 						
@@ -75,10 +177,8 @@ public class MainWindow extends JFrame{
 						setSize(bufferedImage.getWidth() - 50, bufferedImage.getHeight());
 					}
 				}catch(Exception ex){
-					System.out.println(ex.getMessage());
+					showError("Cannot open the image", ex);
 				}
-				
-								
 			}
 		});
 		buttonsPanel.add(buttonOpenImage);
@@ -87,17 +187,20 @@ public class MainWindow extends JFrame{
 		final JButton buttonCartoonizeImage = new JButton("Cartoonize Image");
 		buttonCartoonizeImage.addActionListener(new ActionListener(){
 			public void actionPerformed(ActionEvent e){
-				
-				BufferedImage bufferedImage = imageWrapper.getImage();
-				if(bufferedImage != null){
-					bufferedImage = filters.cartoonizeImage(bufferedImage);
-					imageWrapper.setImage(bufferedImage);
-					imageLabel.setIcon(new ImageIcon(bufferedImage));
-				}
+				startCartoonization();
 			}
 		});
 		buttonsPanel.add(buttonCartoonizeImage);
 		
+		//button for cancelling the cartoonization
+		final JButton buttonCancel = new JButton("Cancel");
+		buttonCancel.addActionListener(new ActionListener(){
+			public void actionPerformed(ActionEvent e){
+				cancelCartoonization();
+			}
+		});
+		buttonsPanel.add(buttonCancel);
+		
 		//button for saving image
 		final JButton buttonSaveImage = new JButton("Save Image");
 		buttonSaveImage.addActionListener(new ActionListener(){
@@ -108,16 +211,174 @@ public class MainWindow extends JFrame{
 					
 					if(fileChooserStatus == JFileChooser.APPROVE_OPTION){
 						File outputFile = fileChooser.getSelectedFile();
-						ImageIO.write(imageWrapper.getImage(), FilenameUtils.getExtension(outputFile.getAbsolutePath()), outputFile);
+						String format = FilenameUtils.getExtension(outputFile.getAbsolutePath());
+						if(!ImageIO.write(imageWrapper.getImage(), format, outputFile)){
+							throw new IOException("no image writer for format \"" + format + "\"");
+						}
 					}
 				}catch(Exception ex){
-					System.out.println(ex.getMessage());
+					showError("Cannot save the image", ex);
 				}
 			}
 		});
 		buttonsPanel.add(buttonSaveImage);			
 	}
 	
+	//shows the error in a dialog and the status label
+	private void showError(String message, Throwable ex){
+		
+		statusLabel.setText(message);
+		JOptionPane.showMessageDialog(this, message + ":\n" + ex, "PhotoCartoonizer", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	//cartoonizes the opened image in the background with the current parameters, so that the window stays
+	//responsive. A running cartoonization is cancelled
+	private void startCartoonization(){
+		
+		if(originalImage == null){
+			return;
+		}
+		
+		cancelCartoonization();
+		int medianWindow = (Integer)medianWindowSpinner.getValue();
+		worker = new CartoonizeWorker(originalImage, previewImage, (Integer)clusterCountSpinner.getValue(), medianWindow, medianWindow,
+				edgeThresholdSlider.getValue(), (EdgeDetector)edgeDetectorComboBox.getSelectedItem());
+		worker.addPropertyChangeListener(new PropertyChangeListener(){
+			public void propertyChange(PropertyChangeEvent evt){
+				if("progress".equals(evt.getPropertyName())){
+					progressBar.setValue((Integer)evt.getNewValue());
+				}
+			}
+		});
+		statusLabel.setText("Cartoonizing preview");
+		worker.execute();
+	}
+	
+	//cancels the running cartoonization, the image keeps what was shown last
+	private void cancelCartoonization(){
+		
+		if(worker != null){
+			worker.cancel(false);
+			worker = null;
+			progressBar.setValue(0);
+			statusLabel.setText("Cancelled");
+		}
+	}
+	
+	//returns a copy of image scaled to the given size with bilinear interpolation
+	static BufferedImage scale(BufferedImage image, int width, int height){
+		
+		BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaledImage.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(image, 0, 0, width, height, null);
+		graphics.dispose();
+		return scaledImage;
+	}
+	
+	//cartoonizes a small preview of the image first and publishes it scaled to the size of the image, then
+	//cartoonizes the image in full resolution. Stages whose parameters didn't change come from the cache. The
+	//preview takes the first PREVIEW_PROGRESS percent of the progress, the segmentation and the filtering of the
+	//full resolution image share the rest
+	class CartoonizeWorker extends SwingWorker<BufferedImage, BufferedImage>{
+		
+		static final int PREVIEW_PROGRESS = 10;
+		static final int SEGMENTATION_PROGRESS = 45;
+		
+		private final BufferedImage image;
+		private final BufferedImage previewImage;
+		private final int clusterCount;
+		private final int medianWindowWidth;
+		private final int medianWindowHeight;
+		private final int edgeThreshold;
+		private final EdgeDetector edgeDetector;
+		
+		CartoonizeWorker(BufferedImage image, BufferedImage previewImage, int clusterCount, int medianWindowWidth, int medianWindowHeight,
+				int edgeThreshold, EdgeDetector edgeDetector){
+			this.image = image;
+			this.previewImage = previewImage;
+			this.clusterCount = clusterCount;
+			this.medianWindowWidth = medianWindowWidth;
+			this.medianWindowHeight = medianWindowHeight;
+			this.edgeThreshold = edgeThreshold;
+			this.edgeDetector = edgeDetector;
+		}
+		
+		protected BufferedImage doInBackground(){
+			
+			if(previewImage != image){
+				BufferedImage cartoonizedPreview = cartoonize(previewImage, new StageProgress(0, PREVIEW_PROGRESS / 2, PREVIEW_PROGRESS / 2));
+				publish(scale(cartoonizedPreview, image.getWidth(), image.getHeight()));
+			}
+			
+			return cartoonize(image, new StageProgress(PREVIEW_PROGRESS, SEGMENTATION_PROGRESS, 100 - PREVIEW_PROGRESS - SEGMENTATION_PROGRESS));
+		}
+		
+		private BufferedImage cartoonize(BufferedImage source, ProgressListener progressListener){
+			return cartoonizer.cartoonizeImage(source, clusterCount, medianWindowWidth, medianWindowHeight, edgeThreshold, edgeDetector, progressListener);
+		}
+		
+		protected void process(List<BufferedImage> previews){
+			
+			if(worker == this){
+				imageLabel.setIcon(new ImageIcon(previews.get(previews.size() - 1)));
+				statusLabel.setText("Cartoonizing full resolution");
+			}
+		}
+		
+		protected void done(){
+			
+			if(worker != this){
+				//cancelled or replaced by a newer cartoonization
+				return;
+			}
+			worker = null;
+			
+			try{
+				BufferedImage bufferedImage = get();
+				imageWrapper.setImage(bufferedImage);
+				imageLabel.setIcon(new ImageIcon(bufferedImage));
+				progressBar.setValue(100);
+				statusLabel.setText(String.format(Locale.ROOT, "Done in %.0f ms", cartoonizer.getMetrics().getLastImageMillis()));
+			}catch(CancellationException ex){
+				statusLabel.setText("Cancelled");
+			}catch(InterruptedException ex){
+				statusLabel.setText("Cancelled");
+			}catch(ExecutionException ex){
+				showError("Cannot cartoonize the image", ex.getCause());
+			}
+		}
+		
+		//maps the progress of the segmentation and the filtering of one image into a range of the progress bar
+		class StageProgress implements ProgressListener{
+			
+			private final int start;
+			private final int segmentationRange;
+			private final int filteringRange;
+			
+			StageProgress(int start, int segmentationRange, int filteringRange){
+				this.start = start;
+				this.segmentationRange = segmentationRange;
+				this.filteringRange = filteringRange;
+			}
+			
+			public void progress(Stage stage, int done, int total){
+				
+				int progress;
+				if(stage == Stage.SEGMENTATION){
+					progress = start + segmentationRange * done / Math.max(1, total);
+				}else{
+					progress = start + segmentationRange + filteringRange * done / Math.max(1, total);
+				}
+				setProgress(Math.min(100, progress));
+			}
+			
+			public boolean isCancelled(){
+				return CartoonizeWorker.this.isCancelled();
+			}
+		}
+	}
+	
 	class ImageWrapper{
 		BufferedImage image;
 		
@@ -0,0 +1,125 @@
+package source;
+
+import java.util.concurrent.CancellationException;
+
+//median filter followed by Sobel edge detection in a single pass. The median filtered rows are produced one at a
+//time into a rolling buffer of three rows together with their greyscale, and every output row is computed as soon
+//as the rows above and below it are available, so the median filtered image is never stored as a whole.
+//The result is the same as applying the median filter and then Filters.applyEdgeDetection.
+public class MedianEdgeFilter {
+
+	//number of rows between two progress reports
+	private static final int PROGRESS_ROWS = 16;
+
+	private final MedianRowFilter medianFilter;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int threshold;
+	private final PixelKernels kernels;
+	//pool the row buffers are taken from, or null
+	private final BufferPool bufferPool;
+	//receives the rows as they are done, or null
+	private ProgressListener progressListener;
+
+	public MedianEdgeFilter(MedianRowFilter medianFilter, int imageWidth, int imageHeight, int threshold){
+		this(medianFilter, imageWidth, imageHeight, threshold, PixelKernels.getInstance(), null);
+	}
+
+	public MedianEdgeFilter(MedianRowFilter medianFilter, int imageWidth, int imageHeight, int threshold, PixelKernels kernels,
+			BufferPool bufferPool){
+
+		this.medianFilter = medianFilter;
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.threshold = threshold;
+		this.kernels = kernels;
+		this.bufferPool = bufferPool;
+	}
+
+	//reports the output rows to the listener, which may cancel the filter. listener may be null
+	public void setProgressListener(ProgressListener progressListener){
+		this.progressListener = progressListener;
+	}
+
+	//filters the whole image and returns the filtered pixels
+	public int[] filter(){
+
+		int result[] = new int[imageWidth * imageHeight];
+		filter(result);
+		return result;
+	}
+
+	//filters the whole image into result
+	public void filter(int result[]){
+
+		//rolling buffers of three rows, row y starts at (y % 3) * imageWidth
+		int medianRows[] = bufferPool == null ? new int[3 * imageWidth] : bufferPool.acquire(3 * imageWidth);
+		int greyscaleRows[] = bufferPool == null ? new int[3 * imageWidth] : bufferPool.acquire(3 * imageWidth);
+
+		try{
+			filter(result, medianRows, greyscaleRows);
+		}finally{
+			if(bufferPool != null){
+				bufferPool.release(medianRows);
+				bufferPool.release(greyscaleRows);
+			}
+		}
+	}
+
+	private void filter(int result[], int medianRows[], int greyscaleRows[]){
+
+		int firstMedianRow = medianFilter.getWindowHeight() / 2;
+		int lastMedianRow = imageHeight - medianFilter.getWindowHeight() / 2;
+
+		for(int countery = 0; countery <= imageHeight; countery++){
+
+			//produce the median filtered row countery
+			if(countery < imageHeight){
+
+				int rowOffset = (countery % 3) * imageWidth;
+				if(countery >= firstMedianRow && countery < lastMedianRow){
+					medianFilter.filterRow(countery, medianRows, rowOffset);
+				}else{
+					for(int counterx = 0; counterx < imageWidth; counterx++){
+						medianRows[rowOffset + counterx] = 0;
+					}
+				}
+				kernels.convertToGreyscale(medianRows, rowOffset, greyscaleRows, rowOffset, imageWidth);
+			}
+
+			//the rows around countery - 1 are available now
+			if(countery > 0){
+				detectEdges(countery - 1, medianRows, greyscaleRows, result);
+			}
+
+			if(progressListener != null && (countery % PROGRESS_ROWS == 0 || countery == imageHeight)){
+				if(progressListener.isCancelled()){
+					throw new CancellationException("filtering cancelled");
+				}
+				progressListener.progress(ProgressListener.Stage.FILTERING, countery, imageHeight);
+			}
+		}
+	}
+
+	// computes the output row y with the Sobel kernel. Reference:
+	// http://dasl.mem.drexel.edu/alumni/bGreen/www.pages.drexel.edu/_weg22/edge.html
+	private void detectEdges(int y, int medianRows[], int greyscaleRows[], int result[]){
+
+		int rowOffset = (y % 3) * imageWidth;
+		int resultOffset = y * imageWidth;
+
+		// image boundries
+		if(y == 0 || y == imageHeight - 1){
+			System.arraycopy(medianRows, rowOffset, result, resultOffset, imageWidth);
+			return;
+		}
+
+		result[resultOffset] = medianRows[rowOffset];
+		kernels.detectEdges(greyscaleRows, ((y - 1) % 3) * imageWidth, rowOffset, ((y + 1) % 3) * imageWidth, medianRows, rowOffset, result, resultOffset,
+				imageWidth, threshold);
+		if(imageWidth > 1){
+			result[resultOffset + imageWidth - 1] = medianRows[rowOffset + imageWidth - 1];
+		}
+	}
+
+}
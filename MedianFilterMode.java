@@ -0,0 +1,16 @@
+package source;
+
+//algorithms the median filter can use
+public enum MedianFilterMode {
+
+	//selects the median of every window with QuickSelect, the cost per pixel grows with the window area
+	QUICKSELECT,
+
+	//selects the median of every window with a MedianSelector: a sorting network for 3x3 and 5x5 windows, counting
+	//the channel values for other windows
+	SELECTOR,
+
+	//keeps sliding histograms of the window, the cost per pixel doesn't depend on the window size
+	HISTOGRAM
+
+}
@@ -0,0 +1,13 @@
+package source;
+
+//median filter that produces its result one row at a time
+public interface MedianRowFilter {
+
+	int getWindowHeight();
+
+	//writes the filtered row y to result starting at resultOffset. Rows have to be filtered one after the other,
+	//starting at windowHeight / 2 and ending before imageHeight - windowHeight / 2; the rows closer to the image
+	//border are black
+	void filterRow(int y, int result[], int resultOffset);
+
+}
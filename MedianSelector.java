@@ -0,0 +1,196 @@
+package source;
+
+//selects the median of small windows of channel values in 0-255 without allocating. Windows of 9 and 25 values,
+//the 3x3 and 5x5 windows, go through a sorting network that only keeps the compare-exchanges the middle element
+//depends on; the network is unrolled over local variables and its compare-exchanges are branch-free min and max
+//operations. Other windows are counted into a histogram of the 256 values, which is scanned up to the median and
+//cleared again by going over the values.
+//A selector keeps its histogram, so every thread needs its own selector.
+//Reference: N. Devillard, "Fast median search: an ANSI C implementation", 1998, for the 9 and 25 value networks.
+public class MedianSelector {
+
+	//number of values of every channel value, all zero between two calls
+	private final int counts[] = new int[256];
+
+	//whether median uses a sorting network for windows of count values
+	public static boolean hasNetwork(int count){
+		return count == 9 || count == 25;
+	}
+
+	//returns the median of the first count values, which must be in 0-255. The values aren't changed
+	public int median(int values[], int count){
+
+		switch(count){
+			case 9:
+				return median9(values);
+			case 25:
+				return median25(values);
+			default:
+				return countingMedian(values, count);
+		}
+	}
+
+	//returns the median of the first count values, which must be in 0-255, by counting them. The values aren't
+	//changed
+	public int countingMedian(int values[], int count){
+
+		for(int i = 0; i < count; i++){
+			counts[values[i]]++;
+		}
+
+		//the median is the first value with more than count / 2 values up to and including it
+		int median = 0;
+		int remaining = count / 2;
+		while(remaining >= counts[median]){
+			remaining -= counts[median];
+			median++;
+		}
+
+		for(int i = 0; i < count; i++){
+			counts[values[i]] = 0;
+		}
+		return median;
+	}
+
+	//returns the median of 9 values with the 3x3 sorting network. The order of the values isn't changed
+	public static int median9(int values[]){
+
+		int p0 = values[0]; int p1 = values[1]; int p2 = values[2]; int p3 = values[3]; int p4 = values[4];
+		int p5 = values[5]; int p6 = values[6]; int p7 = values[7]; int p8 = values[8];
+		int t;
+
+		t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+		t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+		t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+		t = Math.min(p0, p1); p1 = Math.max(p0, p1); p0 = t;
+		t = Math.min(p3, p4); p4 = Math.max(p3, p4); p3 = t;
+		t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+		t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+		t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+		t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+		t = Math.min(p0, p3); p3 = Math.max(p0, p3); p0 = t;
+		t = Math.min(p5, p8); p8 = Math.max(p5, p8); p5 = t;
+		t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+		t = Math.min(p3, p6); p6 = Math.max(p3, p6); p3 = t;
+		t = Math.min(p1, p4); p4 = Math.max(p1, p4); p1 = t;
+		t = Math.min(p2, p5); p5 = Math.max(p2, p5); p2 = t;
+		t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+		t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+		t = Math.min(p6, p4); p4 = Math.max(p6, p4); p6 = t;
+		t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+		return p4;
+	}
+
+	//returns the median of 25 values with the 5x5 sorting network. The order of the values isn't changed
+	public static int median25(int values[]){
+
+		int p0 = values[0]; int p1 = values[1]; int p2 = values[2]; int p3 = values[3]; int p4 = values[4];
+		int p5 = values[5]; int p6 = values[6]; int p7 = values[7]; int p8 = values[8]; int p9 = values[9];
+		int p10 = values[10]; int p11 = values[11]; int p12 = values[12]; int p13 = values[13]; int p14 = values[14];
+		int p15 = values[15]; int p16 = values[16]; int p17 = values[17]; int p18 = values[18]; int p19 = values[19];
+		int p20 = values[20]; int p21 = values[21]; int p22 = values[22]; int p23 = values[23]; int p24 = values[24];
+		int t;
+
+		t = Math.min(p0, p1); p1 = Math.max(p0, p1); p0 = t;
+		t = Math.min(p3, p4); p4 = Math.max(p3, p4); p3 = t;
+		t = Math.min(p2, p4); p4 = Math.max(p2, p4); p2 = t;
+		t = Math.min(p2, p3); p3 = Math.max(p2, p3); p2 = t;
+		t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+		t = Math.min(p5, p7); p7 = Math.max(p5, p7); p5 = t;
+		t = Math.min(p5, p6); p6 = Math.max(p5, p6); p5 = t;
+		t = Math.min(p9, p10); p10 = Math.max(p9, p10); p9 = t;
+		t = Math.min(p8, p10); p10 = Math.max(p8, p10); p8 = t;
+		t = Math.min(p8, p9); p9 = Math.max(p8, p9); p8 = t;
+		t = Math.min(p12, p13); p13 = Math.max(p12, p13); p12 = t;
+		t = Math.min(p11, p13); p13 = Math.max(p11, p13); p11 = t;
+		t = Math.min(p11, p12); p12 = Math.max(p11, p12); p11 = t;
+		t = Math.min(p15, p16); p16 = Math.max(p15, p16); p15 = t;
+		t = Math.min(p14, p16); p16 = Math.max(p14, p16); p14 = t;
+		t = Math.min(p14, p15); p15 = Math.max(p14, p15); p14 = t;
+		t = Math.min(p18, p19); p19 = Math.max(p18, p19); p18 = t;
+		t = Math.min(p17, p19); p19 = Math.max(p17, p19); p17 = t;
+		t = Math.min(p17, p18); p18 = Math.max(p17, p18); p17 = t;
+		t = Math.min(p21, p22); p22 = Math.max(p21, p22); p21 = t;
+		t = Math.min(p20, p22); p22 = Math.max(p20, p22); p20 = t;
+		t = Math.min(p20, p21); p21 = Math.max(p20, p21); p20 = t;
+		t = Math.min(p23, p24); p24 = Math.max(p23, p24); p23 = t;
+		t = Math.min(p2, p5); p5 = Math.max(p2, p5); p2 = t;
+		t = Math.min(p3, p6); p6 = Math.max(p3, p6); p3 = t;
+		t = Math.min(p0, p6); p6 = Math.max(p0, p6); p0 = t;
+		t = Math.min(p0, p3); p3 = Math.max(p0, p3); p0 = t;
+		t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+		t = Math.min(p1, p7); p7 = Math.max(p1, p7); p1 = t;
+		t = Math.min(p1, p4); p4 = Math.max(p1, p4); p1 = t;
+		t = Math.min(p11, p14); p14 = Math.max(p11, p14); p11 = t;
+		t = Math.min(p8, p14); p14 = Math.max(p8, p14); p8 = t;
+		t = Math.min(p8, p11); p11 = Math.max(p8, p11); p8 = t;
+		t = Math.min(p12, p15); p15 = Math.max(p12, p15); p12 = t;
+		t = Math.min(p9, p15); p15 = Math.max(p9, p15); p9 = t;
+		t = Math.min(p9, p12); p12 = Math.max(p9, p12); p9 = t;
+		t = Math.min(p13, p16); p16 = Math.max(p13, p16); p13 = t;
+		t = Math.min(p10, p16); p16 = Math.max(p10, p16); p10 = t;
+		t = Math.min(p10, p13); p13 = Math.max(p10, p13); p10 = t;
+		t = Math.min(p20, p23); p23 = Math.max(p20, p23); p20 = t;
+		t = Math.min(p17, p23); p23 = Math.max(p17, p23); p17 = t;
+		t = Math.min(p17, p20); p20 = Math.max(p17, p20); p17 = t;
+		t = Math.min(p21, p24); p24 = Math.max(p21, p24); p21 = t;
+		t = Math.min(p18, p24); p24 = Math.max(p18, p24); p18 = t;
+		t = Math.min(p18, p21); p21 = Math.max(p18, p21); p18 = t;
+		t = Math.min(p19, p22); p22 = Math.max(p19, p22); p19 = t;
+		t = Math.min(p8, p17); p17 = Math.max(p8, p17); p8 = t;
+		t = Math.min(p9, p18); p18 = Math.max(p9, p18); p9 = t;
+		t = Math.min(p0, p18); p18 = Math.max(p0, p18); p0 = t;
+		t = Math.min(p0, p9); p9 = Math.max(p0, p9); p0 = t;
+		t = Math.min(p10, p19); p19 = Math.max(p10, p19); p10 = t;
+		t = Math.min(p1, p19); p19 = Math.max(p1, p19); p1 = t;
+		t = Math.min(p1, p10); p10 = Math.max(p1, p10); p1 = t;
+		t = Math.min(p11, p20); p20 = Math.max(p11, p20); p11 = t;
+		t = Math.min(p2, p20); p20 = Math.max(p2, p20); p2 = t;
+		t = Math.min(p2, p11); p11 = Math.max(p2, p11); p2 = t;
+		t = Math.min(p12, p21); p21 = Math.max(p12, p21); p12 = t;
+		t = Math.min(p3, p21); p21 = Math.max(p3, p21); p3 = t;
+		t = Math.min(p3, p12); p12 = Math.max(p3, p12); p3 = t;
+		t = Math.min(p13, p22); p22 = Math.max(p13, p22); p13 = t;
+		t = Math.min(p4, p22); p22 = Math.max(p4, p22); p4 = t;
+		t = Math.min(p4, p13); p13 = Math.max(p4, p13); p4 = t;
+		t = Math.min(p14, p23); p23 = Math.max(p14, p23); p14 = t;
+		t = Math.min(p5, p23); p23 = Math.max(p5, p23); p5 = t;
+		t = Math.min(p5, p14); p14 = Math.max(p5, p14); p5 = t;
+		t = Math.min(p15, p24); p24 = Math.max(p15, p24); p15 = t;
+		t = Math.min(p6, p24); p24 = Math.max(p6, p24); p6 = t;
+		t = Math.min(p6, p15); p15 = Math.max(p6, p15); p6 = t;
+		t = Math.min(p7, p16); p16 = Math.max(p7, p16); p7 = t;
+		t = Math.min(p7, p19); p19 = Math.max(p7, p19); p7 = t;
+		t = Math.min(p13, p21); p21 = Math.max(p13, p21); p13 = t;
+		t = Math.min(p15, p23); p23 = Math.max(p15, p23); p15 = t;
+		t = Math.min(p7, p13); p13 = Math.max(p7, p13); p7 = t;
+		t = Math.min(p7, p15); p15 = Math.max(p7, p15); p7 = t;
+		t = Math.min(p1, p9); p9 = Math.max(p1, p9); p1 = t;
+		t = Math.min(p3, p11); p11 = Math.max(p3, p11); p3 = t;
+		t = Math.min(p5, p17); p17 = Math.max(p5, p17); p5 = t;
+		t = Math.min(p11, p17); p17 = Math.max(p11, p17); p11 = t;
+		t = Math.min(p9, p17); p17 = Math.max(p9, p17); p9 = t;
+		t = Math.min(p4, p10); p10 = Math.max(p4, p10); p4 = t;
+		t = Math.min(p6, p12); p12 = Math.max(p6, p12); p6 = t;
+		t = Math.min(p7, p14); p14 = Math.max(p7, p14); p7 = t;
+		t = Math.min(p4, p6); p6 = Math.max(p4, p6); p4 = t;
+		t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+		t = Math.min(p12, p14); p14 = Math.max(p12, p14); p12 = t;
+		t = Math.min(p10, p14); p14 = Math.max(p10, p14); p10 = t;
+		t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+		t = Math.min(p10, p12); p12 = Math.max(p10, p12); p10 = t;
+		t = Math.min(p6, p10); p10 = Math.max(p6, p10); p6 = t;
+		t = Math.min(p6, p17); p17 = Math.max(p6, p17); p6 = t;
+		t = Math.min(p12, p17); p17 = Math.max(p12, p17); p12 = t;
+		t = Math.min(p7, p17); p17 = Math.max(p7, p17); p7 = t;
+		t = Math.min(p7, p10); p10 = Math.max(p7, p10); p7 = t;
+		t = Math.min(p12, p18); p18 = Math.max(p12, p18); p12 = t;
+		t = Math.min(p7, p12); p12 = Math.max(p7, p12); p7 = t;
+		t = Math.min(p10, p18); p18 = Math.max(p10, p18); p10 = t;
+		t = Math.min(p12, p20); p20 = Math.max(p12, p20); p12 = t;
+		t = Math.min(p10, p20); p20 = Math.max(p10, p20); p10 = t;
+		t = Math.min(p10, p12); p12 = Math.max(p10, p12); p10 = t;
+		return p12;
+	}
+
+}
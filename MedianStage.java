@@ -0,0 +1,39 @@
+package source;
+
+//median filter of segmented images with a fixed window size. The stage is thread-safe; the filters it creates
+//take their column histograms from the buffer pool and give them back on release.
+public class MedianStage {
+
+	private final int windowWidth;
+	private final int windowHeight;
+	//pool the column histograms are taken from, or null
+	private final BufferPool bufferPool;
+
+	public MedianStage(int windowWidth, int windowHeight, BufferPool bufferPool){
+
+		if(windowWidth < 1 || windowHeight < 1){
+			throw new IllegalArgumentException("window size must be positive: " + windowWidth + "x" + windowHeight);
+		}
+
+		this.windowWidth = windowWidth;
+		this.windowHeight = windowHeight;
+		this.bufferPool = bufferPool;
+	}
+
+	public int getWindowWidth(){
+		return windowWidth;
+	}
+
+	public int getWindowHeight(){
+		return windowHeight;
+	}
+
+	//creates a median filter of an image given by the cluster index of every pixel. The segmented image only has
+	//the colors of the cluster centers, so the filter works on the cluster labels instead of the RGB values
+	public PaletteMedianFilter createFilter(int labels[], int imageWidth, int imageHeight, KMeansSegmenter segmenter){
+
+		return new PaletteMedianFilter(labels, imageWidth, imageHeight, windowWidth, windowHeight,
+				segmenter.getCentersRed(), segmenter.getCentersGreen(), segmenter.getCentersBlue(), bufferPool);
+	}
+
+}
@@ -0,0 +1,197 @@
+package source;
+
+import java.util.Arrays;
+
+//median filter for images that only use the colors of a small palette, such as the result of the k-means
+//segmentation. The filter works on the palette index of every pixel: every column keeps a histogram of the palette
+//indices in the rows covered by the window, and the window histogram is updated by adding the column entering the
+//window and subtracting the column leaving it. The median of each channel is found by walking the palette in the
+//order of that channel's values, which gives the same result as filtering the RGB image channel by channel.
+//Like the other median filters, pixels closer than half a window to the image border are left black.
+public class PaletteMedianFilter implements MedianRowFilter {
+
+	private final int labels[];
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int windowWidth;
+	private final int windowHeight;
+	private final int edgex;
+	private final int edgey;
+	private final int windowMiddle;
+	private final int paletteSize;
+
+	//channel values of the palette colors
+	private final int paletteRed[];
+	private final int paletteGreen[];
+	private final int paletteBlue[];
+
+	//palette indices sorted by the value of each channel
+	private final int redOrder[];
+	private final int greenOrder[];
+	private final int blueOrder[];
+
+	//histograms of all columns, column x uses the elements from x * paletteSize
+	private final int columnHistograms[];
+	//histogram of the current window
+	private final int windowHistogram[];
+
+	//next row that filterRow expects
+	private int nextRow;
+
+	//pool the column histograms are taken from, or null
+	private final BufferPool bufferPool;
+
+	public PaletteMedianFilter(int labels[], int imageWidth, int imageHeight, int windowWidth, int windowHeight,
+			int paletteRed[], int paletteGreen[], int paletteBlue[]){
+		this(labels, imageWidth, imageHeight, windowWidth, windowHeight, paletteRed, paletteGreen, paletteBlue, null);
+	}
+
+	//creates a filter that takes its column histograms from the given pool, release returns them
+	public PaletteMedianFilter(int labels[], int imageWidth, int imageHeight, int windowWidth, int windowHeight,
+			int paletteRed[], int paletteGreen[], int paletteBlue[], BufferPool bufferPool){
+
+		this.labels = labels;
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.windowWidth = windowWidth;
+		this.windowHeight = windowHeight;
+		this.edgex = windowWidth / 2;
+		this.edgey = windowHeight / 2;
+		this.windowMiddle = windowWidth * windowHeight / 2;
+		this.paletteSize = paletteRed.length;
+
+		this.paletteRed = paletteRed.clone();
+		this.paletteGreen = paletteGreen.clone();
+		this.paletteBlue = paletteBlue.clone();
+
+		redOrder = sortByValue(this.paletteRed);
+		greenOrder = sortByValue(this.paletteGreen);
+		blueOrder = sortByValue(this.paletteBlue);
+
+		this.bufferPool = bufferPool;
+		if(bufferPool == null){
+			columnHistograms = new int[imageWidth * paletteSize];
+		}else{
+			columnHistograms = bufferPool.acquire(imageWidth * paletteSize);
+			Arrays.fill(columnHistograms, 0);
+		}
+		windowHistogram = new int[paletteSize];
+
+		nextRow = edgey;
+	}
+
+	public int getWindowHeight(){
+		return windowHeight;
+	}
+
+	//filters the whole image and returns the filtered pixels
+	public int[] filter(){
+
+		int result[] = new int[imageWidth * imageHeight];
+		for(int countery = edgey; countery < imageHeight - edgey; countery++){
+			filterRow(countery, result, countery * imageWidth);
+		}
+		return result;
+	}
+
+	public void filterRow(int y, int result[], int resultOffset){
+
+		if(y != nextRow || y >= imageHeight - edgey){
+			throw new IllegalStateException("expected row " + nextRow + " but got " + y);
+		}
+
+		if(y == edgey){
+			//the column histograms hold the first windowHeight rows
+			for(int countery = 0; countery < windowHeight; countery++){
+				for(int counterx = 0; counterx < imageWidth; counterx++){
+					columnHistograms[counterx * paletteSize + labels[countery * imageWidth + counterx]]++;
+				}
+			}
+		}else{
+			//move the column histograms one row down
+			int leavingRowOffset = (y - edgey - 1) * imageWidth;
+			int enteringRowOffset = (y - edgey + windowHeight - 1) * imageWidth;
+			for(int counterx = 0; counterx < imageWidth; counterx++){
+				columnHistograms[counterx * paletteSize + labels[leavingRowOffset + counterx]]--;
+				columnHistograms[counterx * paletteSize + labels[enteringRowOffset + counterx]]++;
+			}
+		}
+		nextRow++;
+
+		for(int counterx = 0; counterx < imageWidth; counterx++){
+			result[resultOffset + counterx] = 0;
+		}
+
+		if(imageWidth < windowWidth){
+			return;
+		}
+
+		//put the window at the first column of the row
+		for(int i = 0; i < paletteSize; i++){
+			windowHistogram[i] = 0;
+		}
+		for(int column = 0; column < windowWidth; column++){
+			for(int i = 0; i < paletteSize; i++){
+				windowHistogram[i] += columnHistograms[column * paletteSize + i];
+			}
+		}
+
+		for(int counterx = edgex; counterx < imageWidth - edgex; counterx++){
+
+			if(counterx != edgex){
+				int leavingOffset = (counterx - edgex - 1) * paletteSize;
+				int enteringOffset = (counterx - edgex + windowWidth - 1) * paletteSize;
+				for(int i = 0; i < paletteSize; i++){
+					windowHistogram[i] += columnHistograms[enteringOffset + i] - columnHistograms[leavingOffset + i];
+				}
+			}
+
+			int medianRed = paletteRed[medianIndex(redOrder)];
+			int medianGreen = paletteGreen[medianIndex(greenOrder)];
+			int medianBlue = paletteBlue[medianIndex(blueOrder)];
+			result[resultOffset + counterx] = 0xff000000 | (medianRed << 16) | (medianGreen << 8) | medianBlue;
+		}
+	}
+
+	//returns the column histograms to the pool, the filter can't be used afterwards
+	public void release(){
+
+		if(bufferPool != null){
+			bufferPool.release(columnHistograms);
+		}
+	}
+
+	//returns the palette index holding the median when the window's pixels are ordered by the given order
+	private int medianIndex(int order[]){
+
+		int remaining = windowMiddle;
+		int i = 0;
+		while(windowHistogram[order[i]] <= remaining){
+			remaining -= windowHistogram[order[i]];
+			i++;
+		}
+		return order[i];
+	}
+
+	//returns the palette indices sorted by the given channel values
+	private static int[] sortByValue(int values[]){
+
+		int order[] = new int[values.length];
+		for(int i = 0; i < order.length; i++){
+			order[i] = i;
+		}
+
+		//insertion sort, palettes are small
+		for(int i = 1; i < order.length; i++){
+			int current = order[i];
+			int j = i - 1;
+			while(j >= 0 && values[order[j]] > values[current]){
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = current;
+		}
+		return order;
+	}
+
+}
@@ -0,0 +1,123 @@
+package source;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import source.ProgressListener.Stage;
+
+//totals of the ImageMetrics of all images a pipeline cartoonized. The metrics are thread-safe and can be
+//registered as an MBean, so that they can be watched with jconsole or any other JMX client while a batch or a
+//service is running.
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+	private long imageCount;
+	private long failedImageCount;
+	private long pixelCount;
+	private final long stageWallNanos[] = new long[Stage.values().length];
+	private long wallNanos;
+	private long cpuNanos;
+	private long allocatedBytes;
+	private long iterationCount;
+	private long emptyClusterCount;
+	private long lastImageNanos;
+
+	//adds the metrics of a cartoonized image
+	public synchronized void record(ImageMetrics imageMetrics){
+
+		imageCount++;
+		pixelCount += imageMetrics.getPixelCount();
+		for(Stage stage : Stage.values()){
+			stageWallNanos[stage.ordinal()] += imageMetrics.getWallNanos(stage);
+		}
+		wallNanos += imageMetrics.getWallNanos();
+		cpuNanos += imageMetrics.getCpuNanos();
+		allocatedBytes += imageMetrics.getAllocatedBytes();
+		iterationCount += imageMetrics.getIterationCount();
+		emptyClusterCount += imageMetrics.getEmptyClusterCount();
+		lastImageNanos = imageMetrics.getWallNanos();
+	}
+
+	//counts an image whose cartoonization failed
+	public synchronized void recordFailure(){
+		failedImageCount++;
+	}
+
+	//registers the metrics with the platform MBean server under source:type=CartoonPipeline,name=<name>
+	public ObjectName register(String name) throws JMException{
+
+		ObjectName objectName = new ObjectName("source:type=CartoonPipeline,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public synchronized long getImageCount(){
+		return imageCount;
+	}
+
+	public synchronized long getFailedImageCount(){
+		return failedImageCount;
+	}
+
+	public synchronized long getPixelCount(){
+		return pixelCount;
+	}
+
+	public synchronized double getSegmentationMillis(){
+		return stageWallNanos[Stage.SEGMENTATION.ordinal()] / 1e6;
+	}
+
+	public synchronized double getFilteringMillis(){
+		return stageWallNanos[Stage.FILTERING.ordinal()] / 1e6;
+	}
+
+	public synchronized double getWallMillis(){
+		return wallNanos / 1e6;
+	}
+
+	public synchronized double getCpuMillis(){
+		return cpuNanos / 1e6;
+	}
+
+	public synchronized long getAllocatedBytes(){
+		return allocatedBytes;
+	}
+
+	public synchronized long getIterationCount(){
+		return iterationCount;
+	}
+
+	public synchronized long getEmptyClusterCount(){
+		return emptyClusterCount;
+	}
+
+	public synchronized double getAverageMillisPerImage(){
+		return imageCount == 0 ? 0 : wallNanos / 1e6 / imageCount;
+	}
+
+	public synchronized double getMegapixelsPerSecond(){
+		return wallNanos == 0 ? 0 : pixelCount / 1e6 / (wallNanos / 1e9);
+	}
+
+	public synchronized double getLastImageMillis(){
+		return lastImageNanos / 1e6;
+	}
+
+	public synchronized void reset(){
+
+		imageCount = 0;
+		failedImageCount = 0;
+		pixelCount = 0;
+		for(int i = 0; i < stageWallNanos.length; i++){
+			stageWallNanos[i] = 0;
+		}
+		wallNanos = 0;
+		cpuNanos = 0;
+		allocatedBytes = 0;
+		iterationCount = 0;
+		emptyClusterCount = 0;
+		lastImageNanos = 0;
+	}
+
+}
@@ -0,0 +1,37 @@
+package source;
+
+//management interface of PipelineMetrics, the attributes are totals since the metrics were created or reset
+public interface PipelineMetricsMBean {
+
+	long getImageCount();
+
+	//images whose cartoonization threw an exception or was cancelled
+	long getFailedImageCount();
+
+	long getPixelCount();
+
+	double getSegmentationMillis();
+
+	double getFilteringMillis();
+
+	double getWallMillis();
+
+	double getCpuMillis();
+
+	long getAllocatedBytes();
+
+	//k-means iterations of all images
+	long getIterationCount();
+
+	long getEmptyClusterCount();
+
+	double getAverageMillisPerImage();
+
+	double getMegapixelsPerSecond();
+
+	//wall time of the last cartoonized image
+	double getLastImageMillis();
+
+	void reset();
+
+}
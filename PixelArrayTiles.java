@@ -0,0 +1,57 @@
+package source;
+
+//tile source and sink backed by an array of packed ARGB pixels
+public class PixelArrayTiles implements TileSource, TileSink {
+
+	private final int pixels[];
+	private final int width;
+	private final int height;
+
+	public PixelArrayTiles(int pixels[], int width, int height){
+
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	public int[] getPixels(){
+		return pixels;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public void readRegion(int x, int y, int width, int height, int pixels[]){
+
+		for(int countery = 0; countery < height; countery++){
+			System.arraycopy(this.pixels, (y + countery) * this.width + x, pixels, countery * width, width);
+		}
+	}
+
+	public int[] readSubsampled(int stride){
+
+		int sampleWidth = (width + stride - 1) / stride;
+		int sampleHeight = (height + stride - 1) / stride;
+
+		int sample[] = new int[sampleWidth * sampleHeight];
+		for(int countery = 0; countery < sampleHeight; countery++){
+			for(int counterx = 0; counterx < sampleWidth; counterx++){
+				sample[countery * sampleWidth + counterx] = pixels[countery * stride * width + counterx * stride];
+			}
+		}
+		return sample;
+	}
+
+	public void writeRegion(int x, int y, int width, int height, int pixels[]){
+
+		for(int countery = 0; countery < height; countery++){
+			System.arraycopy(pixels, countery * width, this.pixels, (y + countery) * this.width + x, width);
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package source;
+
+//the data parallel loops of the filters: greyscale conversion, the Sobel edge test and the nearest cluster center
+//search. This class runs them as scalar loops. getInstance returns a VectorPixelKernels instead when that class,
+//compiled separately from vector/, is on the class path and the JVM was started with --add-modules
+//jdk.incubator.vector; it runs the edge test and the center search with the vector API and gives the same
+//results. Setting the system property cartoonizer.scalarKernels to true keeps the scalar loops.
+public class PixelKernels {
+
+	private static final PixelKernels SCALAR_INSTANCE = new PixelKernels();
+	private static final PixelKernels INSTANCE = createInstance();
+
+	//largest squared Sobel gradient magnitude of 8 bit greyscale, 2 * (4 * 255)^2
+	static final int MAX_SQUARED_MAGNITUDE = 2 * 1020 * 1020;
+
+	PixelKernels(){
+	}
+
+	private static PixelKernels createInstance(){
+
+		if(Boolean.getBoolean("cartoonizer.scalarKernels")){
+			return SCALAR_INSTANCE;
+		}
+
+		//the vector kernels are only there if they were compiled, and can only be loaded if the incubator module
+		//was added to the boot layer
+		try{
+			return (PixelKernels)Class.forName("source.VectorPixelKernels").getDeclaredConstructor().newInstance();
+		}catch(ClassNotFoundException ex){
+			return SCALAR_INSTANCE;
+		}catch(LinkageError ex){
+			return SCALAR_INSTANCE;
+		}catch(ReflectiveOperationException ex){
+			return SCALAR_INSTANCE;
+		}
+	}
+
+	//returns the vector kernels if they are available, the scalar kernels otherwise
+	public static PixelKernels getInstance(){
+		return INSTANCE;
+	}
+
+	public static PixelKernels getScalarInstance(){
+		return SCALAR_INSTANCE;
+	}
+
+	public boolean isVectorized(){
+		return false;
+	}
+
+	// converts count packed pixels to greyscale. Use luminosity method. Reference:
+	// http://www.johndcook.com/blog/2009/08/24/algorithms-convert-color-grayscale/
+	public void convertToGreyscale(int pixels[], int pixelOffset, int greyscale[], int greyscaleOffset, int count){
+
+		for(int i = 0; i < count; i++){
+			int currentPixel = pixels[pixelOffset + i];
+			int currentPixelRed = (currentPixel >> 16) & 0xff;
+			int currentPixelGreen = (currentPixel >> 8) & 0xff;
+			int currentPixelBlue = currentPixel & 0xff;
+			greyscale[greyscaleOffset + i] = (int) (0.21 * currentPixelRed + 0.71 * currentPixelGreen + 0.07 * currentPixelBlue);
+		}
+	}
+
+	//returns the squared magnitude a pixel is an edge from: (int)sqrt(s) > threshold holds exactly when
+	//s >= (threshold + 1)^2, so the edge test doesn't need the square root
+	static int getSquaredThreshold(int threshold){
+
+		if(threshold < 0){
+			return 0;
+		}
+		return (int)Math.min((long)(threshold + 1) * (threshold + 1), MAX_SQUARED_MAGNITUDE + 1L);
+	}
+
+	// applies the Sobel kernel to the pixels 1 to width - 2 of a row, given the offsets of the greyscale rows
+	// above, at and below it. Edges are black, other pixels are copied from source. The kernel is separable:
+	// every column is differenced and smoothed vertically once, and the horizontal pass combines three
+	// neighbouring columns. Reference:
+	// http://dasl.mem.drexel.edu/alumni/bGreen/www.pages.drexel.edu/_weg22/edge.html
+	public void detectEdges(int greyscale[], int aboveOffset, int middleOffset, int belowOffset, int source[], int sourceOffset,
+			int result[], int resultOffset, int width, int threshold){
+
+		if(width < 3){
+			return;
+		}
+
+		int squaredThreshold = getSquaredThreshold(threshold);
+
+		// vertical difference and smoothing of the columns left of and at the pixel
+		int differenceLeft = greyscale[belowOffset] - greyscale[aboveOffset];
+		int smoothedLeft = greyscale[aboveOffset] + 2 * greyscale[middleOffset] + greyscale[belowOffset];
+		int differenceCenter = greyscale[belowOffset + 1] - greyscale[aboveOffset + 1];
+		int smoothedCenter = greyscale[aboveOffset + 1] + 2 * greyscale[middleOffset + 1] + greyscale[belowOffset + 1];
+
+		for(int counterx = 1; counterx < width - 1; counterx++){
+
+			int differenceRight = greyscale[belowOffset + counterx + 1] - greyscale[aboveOffset + counterx + 1];
+			int smoothedRight = greyscale[aboveOffset + counterx + 1] + 2 * greyscale[middleOffset + counterx + 1] + greyscale[belowOffset + counterx + 1];
+
+			// X and Y gradient approximations, the rows and columns of the Sobel masks
+			int sumX = differenceLeft + 2 * differenceCenter + differenceRight;
+			int sumY = smoothedLeft - smoothedRight;
+
+			if(sumX * sumX + sumY * sumY >= squaredThreshold){
+				result[resultOffset + counterx] = 0xff000000;
+			}else{
+				result[resultOffset + counterx] = source[sourceOffset + counterx];
+			}
+
+			differenceLeft = differenceCenter;
+			differenceCenter = differenceRight;
+			smoothedLeft = smoothedCenter;
+			smoothedCenter = smoothedRight;
+		}
+	}
+
+	//stores the Sobel gradient magnitudes of the pixels 1 to width - 2 of a row in magnitudes, given the offsets of
+	//the greyscale rows above, at and below it. A pixel is an edge for every threshold below its magnitude, the
+	//same as in detectEdges
+	public void computeGradientMagnitudes(int greyscale[], int aboveOffset, int middleOffset, int belowOffset, int magnitudes[], int magnitudeOffset,
+			int width){
+		computeMagnitudes(greyscale, aboveOffset, middleOffset, belowOffset, magnitudes, magnitudeOffset, width, 1, 2, 1);
+	}
+
+	//stores the Scharr gradient magnitudes like computeGradientMagnitudes. The Scharr kernel weighs the neighbours
+	//3, 10, 3 instead of 1, 2, 1, which makes the magnitude depend less on the direction of the edge. The
+	//magnitudes are divided by 4, the ratio of the weight sums, so a threshold means about the same for both kernels
+	public void computeScharrMagnitudes(int greyscale[], int aboveOffset, int middleOffset, int belowOffset, int magnitudes[], int magnitudeOffset,
+			int width){
+		computeMagnitudes(greyscale, aboveOffset, middleOffset, belowOffset, magnitudes, magnitudeOffset, width, 3, 10, 4);
+	}
+
+	//separable gradient with the smoothing weights sideWeight, centerWeight, sideWeight, see detectEdges
+	private static void computeMagnitudes(int greyscale[], int aboveOffset, int middleOffset, int belowOffset, int magnitudes[], int magnitudeOffset,
+			int width, int sideWeight, int centerWeight, int divisor){
+
+		if(width < 3){
+			return;
+		}
+
+		int differenceLeft = greyscale[belowOffset] - greyscale[aboveOffset];
+		int smoothedLeft = sideWeight * (greyscale[aboveOffset] + greyscale[belowOffset]) + centerWeight * greyscale[middleOffset];
+		int differenceCenter = greyscale[belowOffset + 1] - greyscale[aboveOffset + 1];
+		int smoothedCenter = sideWeight * (greyscale[aboveOffset + 1] + greyscale[belowOffset + 1]) + centerWeight * greyscale[middleOffset + 1];
+
+		for(int counterx = 1; counterx < width - 1; counterx++){
+
+			int differenceRight = greyscale[belowOffset + counterx + 1] - greyscale[aboveOffset + counterx + 1];
+			int smoothedRight = sideWeight * (greyscale[aboveOffset + counterx + 1] + greyscale[belowOffset + counterx + 1])
+					+ centerWeight * greyscale[middleOffset + counterx + 1];
+
+			int sumX = sideWeight * (differenceLeft + differenceRight) + centerWeight * differenceCenter;
+			int sumY = smoothedLeft - smoothedRight;
+			magnitudes[magnitudeOffset + counterx] = (int)(Math.sqrt(sumX * sumX + sumY * sumY) / divisor);
+
+			differenceLeft = differenceCenter;
+			differenceCenter = differenceRight;
+			smoothedLeft = smoothedCenter;
+			smoothedCenter = smoothedRight;
+		}
+	}
+
+	//stores the index of the nearest center of each of count packed colors in nearest, comparing squared
+	//distances to all centers. On ties the lowest index wins
+	public void nearestCenters(int colors[], int offset, int count, int centersRed[], int centersGreen[], int centersBlue[], int nearest[]){
+
+		int k = centersRed.length;
+		for(int n = offset; n < offset + count; n++){
+
+			int red = (colors[n] >> 16) & 0xff;
+			int green = (colors[n] >> 8) & 0xff;
+			int blue = colors[n] & 0xff;
+
+			int nearestCenterIndex = 0;
+			int smallestDistance = Integer.MAX_VALUE;
+			for(int i = 0; i < k; i++){
+
+				int differenceRed = red - centersRed[i];
+				int differenceGreen = green - centersGreen[i];
+				int differenceBlue = blue - centersBlue[i];
+				int currentDistance = differenceRed * differenceRed + differenceGreen * differenceGreen + differenceBlue * differenceBlue;
+
+				if(currentDistance < smallestDistance){
+					smallestDistance = currentDistance;
+					nearestCenterIndex = i;
+				}
+			}
+			nearest[n] = nearestCenterIndex;
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package source;
+
+//receives the progress of the filters and can cancel them. The filters call it on the thread they run on
+public interface ProgressListener {
+
+	//stages of the cartoonization the progress is reported for
+	enum Stage{
+		//iterations of the k-means segmentation
+		SEGMENTATION,
+		//rows of the median filter and edge detection
+		FILTERING
+	}
+
+	//the stage has completed done of its total steps
+	void progress(Stage stage, int done, int total);
+
+	//once this returns true the filters stop at their next step and throw a CancellationException
+	boolean isCancelled();
+
+}
@@ -7,11 +7,13 @@ public class QuickSelect {
 	//Reference: http://en.wikipedia.org/wiki/Quickselect
 	//and http://rosettacode.org/wiki/Quickselect_algorithm#Java
 	
+	//picks the pivots, kept between calls so that selecting doesn't allocate
+	private final Random rand = new Random();
+	
 	public int select(int array[], int nthsmallestindex){
 			
 		int left = 0;
 		int right = array.length - 1;
-		Random rand = new Random();
 		while (right > left) {
 			int pivotIndex = rand.nextInt(right - left + 1) + left;
 			pivotIndex = partition(array, left, right, pivotIndex);
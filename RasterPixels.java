@@ -0,0 +1,165 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+//converts between BufferedImages and the packed ARGB pixel arrays the filters work on. The rasters of the common
+//image types are accessed directly instead of going through getRGB and setRGB:
+//TYPE_INT_RGB and TYPE_INT_ARGB images share their pixel array without copying, TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR
+//images are copied once. Other types fall back to getRGB and setRGB.
+public class RasterPixels {
+
+	private RasterPixels(){
+	}
+
+	//returns the pixels of the image as packed ARGB values, row after row. The array may be the image's own pixel
+	//array, so it must not be modified. The alpha of images without alpha channel is undefined
+	public static int[] getPixels(BufferedImage image){
+		return getPixels(image, null);
+	}
+
+	//returns the pixels like getPixels(image), but copies them into buffer if they have to be copied and buffer
+	//has exactly the number of pixels of the image. buffer may be null
+	public static int[] getPixels(BufferedImage image, int buffer[]){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		WritableRaster raster = image.getRaster();
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+
+		//only rasters that cover their whole data buffer can be read directly
+		boolean wholeBuffer = raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& dataBuffer.getNumBanks() == 1 && dataBuffer.getOffset() == 0;
+
+		switch(image.getType()){
+
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				if(wholeBuffer && sampleModel instanceof SinglePixelPackedSampleModel
+						&& ((SinglePixelPackedSampleModel)sampleModel).getScanlineStride() == imageWidth
+						&& dataBuffer.getSize() == imageWidth * imageHeight){
+					return ((DataBufferInt)dataBuffer).getData();
+				}
+				break;
+
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				if(wholeBuffer && sampleModel instanceof ComponentSampleModel){
+					return getInterleavedPixels(image, (ComponentSampleModel)sampleModel, ((DataBufferByte)dataBuffer).getData(), buffer);
+				}
+				break;
+		}
+
+		return image.getRGB(0, 0, imageWidth, imageHeight, buffer != null && buffer.length == imageWidth * imageHeight ? buffer : null, 0, imageWidth);
+	}
+
+	//returns an image of the given type holding the packed ARGB pixels. TYPE_INT_RGB and TYPE_INT_ARGB images use
+	//the array as their pixel array, so it must not be modified afterwards. Images of TYPE_CUSTOM are created as
+	//TYPE_INT_ARGB
+	public static BufferedImage createImage(int pixels[], int imageWidth, int imageHeight, int imageType){
+
+		switch(imageType){
+
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				DirectColorModel colorModel;
+				if(imageType == BufferedImage.TYPE_INT_RGB){
+					colorModel = new DirectColorModel(24, 0x00ff0000, 0x0000ff00, 0x000000ff, 0);
+				}else{
+					colorModel = (DirectColorModel)ColorModel.getRGBdefault();
+				}
+				WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, imageWidth * imageHeight), imageWidth, imageHeight,
+						imageWidth, colorModel.getMasks(), null);
+				return new BufferedImage(colorModel, raster, false, null);
+
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				BufferedImage image = new BufferedImage(imageWidth, imageHeight, imageType);
+				setInterleavedPixels(image, pixels);
+				return image;
+
+			case BufferedImage.TYPE_CUSTOM:
+				return createImage(pixels, imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+
+			default:
+				BufferedImage defaultImage = new BufferedImage(imageWidth, imageHeight, imageType);
+				defaultImage.setRGB(0, 0, imageWidth, imageHeight, pixels, 0, imageWidth);
+				return defaultImage;
+		}
+	}
+
+	//packs the bytes of a TYPE_3BYTE_BGR or TYPE_4BYTE_ABGR raster
+	private static int[] getInterleavedPixels(BufferedImage image, ComponentSampleModel sampleModel, byte data[], int buffer[]){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		int pixelStride = sampleModel.getPixelStride();
+		int scanlineStride = sampleModel.getScanlineStride();
+		int bandOffsets[] = sampleModel.getBandOffsets();
+		int redOffset = bandOffsets[0];
+		int greenOffset = bandOffsets[1];
+		int blueOffset = bandOffsets[2];
+		boolean hasAlpha = bandOffsets.length > 3;
+		int alphaOffset = hasAlpha ? bandOffsets[3] : 0;
+
+		int pixels[] = buffer != null && buffer.length == imageWidth * imageHeight ? buffer : new int[imageWidth * imageHeight];
+		for(int countery = 0; countery < imageHeight; countery++){
+
+			int dataIndex = countery * scanlineStride;
+			int pixelIndex = countery * imageWidth;
+			for(int counterx = 0; counterx < imageWidth; counterx++){
+
+				int alpha = hasAlpha ? data[dataIndex + alphaOffset] & 0xff : 0xff;
+				pixels[pixelIndex + counterx] = (alpha << 24) | ((data[dataIndex + redOffset] & 0xff) << 16)
+						| ((data[dataIndex + greenOffset] & 0xff) << 8) | (data[dataIndex + blueOffset] & 0xff);
+				dataIndex += pixelStride;
+			}
+		}
+		return pixels;
+	}
+
+	//unpacks pixels into the bytes of a newly created TYPE_3BYTE_BGR or TYPE_4BYTE_ABGR image
+	private static void setInterleavedPixels(BufferedImage image, int pixels[]){
+
+		int imageWidth = image.getWidth();
+		int imageHeight = image.getHeight();
+		ComponentSampleModel sampleModel = (ComponentSampleModel)image.getRaster().getSampleModel();
+		byte data[] = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+		int pixelStride = sampleModel.getPixelStride();
+		int scanlineStride = sampleModel.getScanlineStride();
+		int bandOffsets[] = sampleModel.getBandOffsets();
+		int redOffset = bandOffsets[0];
+		int greenOffset = bandOffsets[1];
+		int blueOffset = bandOffsets[2];
+		boolean hasAlpha = bandOffsets.length > 3;
+		int alphaOffset = hasAlpha ? bandOffsets[3] : 0;
+
+		for(int countery = 0; countery < imageHeight; countery++){
+
+			int dataIndex = countery * scanlineStride;
+			int pixelIndex = countery * imageWidth;
+			for(int counterx = 0; counterx < imageWidth; counterx++){
+
+				int currentPixel = pixels[pixelIndex + counterx];
+				data[dataIndex + redOffset] = (byte)(currentPixel >> 16);
+				data[dataIndex + greenOffset] = (byte)(currentPixel >> 8);
+				data[dataIndex + blueOffset] = (byte)currentPixel;
+				if(hasAlpha){
+					data[dataIndex + alphaOffset] = (byte)(currentPixel >>> 24);
+				}
+				dataIndex += pixelStride;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//image file holding the packed ARGB pixels the filters work on, so that it is read and written without decoding
+//or encoding. The file is a 32 byte header (the magic number, the format version, the width, the height and the
+//BufferedImage type, as little endian ints) followed by the pixels as little endian ints, row after row.
+//The file is accessed through memory mapped buffers of whole rows, so reading a region copies the rows straight
+//from the page cache into the pixel array, and a file can be larger than the heap; this makes it usable as the
+//tile source and sink of the TiledCartoonizer. Round trips are lossless for the packed pixels, and images of the
+//types RasterPixels reads directly come back as the same image. A RawPixelFile is not thread-safe.
+public class RawPixelFile implements TileSource, TileSink, Closeable {
+
+	public static final String EXTENSION = "raw";
+
+	//"PCRW" as little endian int
+	private static final int MAGIC = 0x57524350;
+	private static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	//most bytes mapped by one buffer, a buffer maps whole rows
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+	private final RandomAccessFile file;
+	private final int width;
+	private final int height;
+	private final int imageType;
+
+	//rows mapped by every buffer but the last, the buffers and their int views
+	private final int rowsPerChunk;
+	private final MappedByteBuffer mappedChunks[];
+	private final IntBuffer chunks[];
+
+	private RawPixelFile(RandomAccessFile file, int width, int height, int imageType, boolean writable) throws IOException{
+
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.imageType = imageType;
+
+		rowsPerChunk = (int)Math.max(1, Math.min(height, MAX_CHUNK_BYTES / (4L * Math.max(1, width))));
+		mappedChunks = new MappedByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+		chunks = new IntBuffer[mappedChunks.length];
+
+		FileChannel channel = file.getChannel();
+		FileChannel.MapMode mapMode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		for(int i = 0; i < chunks.length; i++){
+			int chunkRows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+			long position = HEADER_SIZE + 4L * width * i * rowsPerChunk;
+			mappedChunks[i] = channel.map(mapMode, position, 4L * width * chunkRows);
+			chunks[i] = mappedChunks[i].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
+
+	//creates a file for an image of the given size and type, with all pixels 0
+	public static RawPixelFile create(File file, int width, int height, int imageType) throws IOException{
+
+		if(width < 1 || height < 1){
+			throw new IllegalArgumentException("image size must be positive: " + width + "x" + height);
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try{
+			randomAccessFile.setLength(0);
+			randomAccessFile.setLength(HEADER_SIZE + 4L * width * height);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(imageType);
+			header.rewind();
+			randomAccessFile.getChannel().write(header, 0);
+
+			return new RawPixelFile(randomAccessFile, width, height, imageType, true);
+		}catch(IOException ex){
+			randomAccessFile.close();
+			throw ex;
+		}
+	}
+
+	//opens an existing file, writable if its pixels are going to be written
+	public static RawPixelFile open(File file, boolean writable) throws IOException{
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, writable ? "rw" : "r");
+		try{
+			if(randomAccessFile.length() < HEADER_SIZE){
+				throw new IOException("not a raw pixel file: " + file);
+			}
+			byte headerBytes[] = new byte[HEADER_SIZE];
+			randomAccessFile.readFully(headerBytes);
+
+			ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt() != MAGIC){
+				throw new IOException("not a raw pixel file: " + file);
+			}
+			int version = header.getInt();
+			if(version != VERSION){
+				throw new IOException("unsupported raw pixel file version " + version + ": " + file);
+			}
+			int width = header.getInt();
+			int height = header.getInt();
+			int imageType = header.getInt();
+			if(width < 1 || height < 1 || randomAccessFile.length() < HEADER_SIZE + 4L * width * height){
+				throw new IOException("truncated raw pixel file: " + file);
+			}
+
+			return new RawPixelFile(randomAccessFile, width, height, imageType, writable);
+		}catch(IOException ex){
+			randomAccessFile.close();
+			throw ex;
+		}
+	}
+
+	//writes the pixels of an image to a new file
+	public static void write(BufferedImage image, File file) throws IOException{
+
+		RawPixelFile rawFile = create(file, image.getWidth(), image.getHeight(), image.getType());
+		try{
+			rawFile.writePixels(RasterPixels.getPixels(image));
+		}finally{
+			rawFile.close();
+		}
+	}
+
+	//reads an image written by write
+	public static BufferedImage read(File file) throws IOException{
+
+		RawPixelFile rawFile = open(file, false);
+		try{
+			return rawFile.readImage();
+		}finally{
+			rawFile.close();
+		}
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	//BufferedImage type of the image the pixels were written from
+	public int getImageType(){
+		return imageType;
+	}
+
+	//returns the image as a BufferedImage of its type
+	public BufferedImage readImage(){
+
+		int pixels[] = new int[width * height];
+		readPixels(pixels);
+		return RasterPixels.createImage(pixels, width, height, imageType);
+	}
+
+	//reads all pixels of the image into pixels
+	public void readPixels(int pixels[]){
+		readRegion(0, 0, width, height, pixels);
+	}
+
+	//writes all pixels of the image
+	public void writePixels(int pixels[]){
+		writeRegion(0, 0, width, height, pixels);
+	}
+
+	public void readRegion(int x, int y, int width, int height, int pixels[]){
+
+		checkRegion(x, y, width, height);
+		for(int countery = 0; countery < height; countery++){
+			IntBuffer chunk = rowBuffer(y + countery, x);
+			chunk.get(pixels, countery * width, width);
+		}
+	}
+
+	public int[] readSubsampled(int stride){
+
+		int sampleWidth = (width + stride - 1) / stride;
+		int sampleHeight = (height + stride - 1) / stride;
+
+		int sample[] = new int[sampleWidth * sampleHeight];
+		for(int countery = 0; countery < sampleHeight; countery++){
+
+			IntBuffer chunk = rowBuffer(countery * stride, 0);
+			int rowStart = chunk.position();
+			for(int counterx = 0; counterx < sampleWidth; counterx++){
+				sample[countery * sampleWidth + counterx] = chunk.get(rowStart + counterx * stride);
+			}
+		}
+		return sample;
+	}
+
+	public void writeRegion(int x, int y, int width, int height, int pixels[]){
+
+		checkRegion(x, y, width, height);
+		for(int countery = 0; countery < height; countery++){
+			IntBuffer chunk = rowBuffer(y + countery, x);
+			chunk.put(pixels, countery * width, width);
+		}
+	}
+
+	//writes the changed pixels to the storage device
+	public void force(){
+
+		for(MappedByteBuffer mappedChunk : mappedChunks){
+			mappedChunk.force();
+		}
+	}
+
+	//closes the file. The mapped buffers stay valid until they are garbage collected, the pixels written to them
+	//are written to the file by the operating system
+	public void close() throws IOException{
+		file.close();
+	}
+
+	//returns the buffer holding row y, positioned at column x
+	private IntBuffer rowBuffer(int y, int x){
+
+		IntBuffer chunk = chunks[y / rowsPerChunk];
+		chunk.position((y % rowsPerChunk) * width + x);
+		return chunk;
+	}
+
+	private void checkRegion(int x, int y, int regionWidth, int regionHeight){
+
+		if(x < 0 || y < 0 || regionWidth < 0 || regionHeight < 0 || x + regionWidth > width || y + regionHeight > height){
+			throw new IndexOutOfBoundsException("region " + x + "," + y + " " + regionWidth + "x" + regionHeight + " outside of the image "
+					+ width + "x" + height);
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package source;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+//k-means segmentation with a fixed configuration. A stage is thread-safe and can be used for any number of
+//images; the segmenters it returns are handed back with release, and the stage gives them to the next image
+//together with the arrays they keep, so images of the same size don't allocate new arrays. It keeps at most as
+//many released segmenters as it has seen in use at the same time, and counts their arrays against the budget of
+//the buffer pool; a segmenter whose arrays don't fit is left to the garbage collector.
+public class SegmentationStage {
+
+	private final int clusterCount;
+	private final int loopCount;
+	private final long seed;
+	private final double sampleFraction;
+	private final boolean randomSampling;
+	private final double convergenceThreshold;
+	private final boolean colorHistogramEnabled;
+	private final PixelKernels kernels;
+	//pool running the assignment, null for single-threaded assignment
+	private final ForkJoinPool pool;
+	//pool the sample arrays are taken from, or null
+	private final BufferPool bufferPool;
+
+	//segmenters that were released and can be used again, at most maxActiveSegmenters of them. Their arrays are
+	//reserved in the buffer pool. Guarded by freeSegmenters
+	private final ArrayDeque<KMeansSegmenter> freeSegmenters = new ArrayDeque<KMeansSegmenter>();
+	//segmenters handed out and not released yet, and the most of them at the same time
+	private int activeSegmenters;
+	private int maxActiveSegmenters;
+
+	public SegmentationStage(int clusterCount, int loopCount, long seed, double sampleFraction, boolean randomSampling, double convergenceThreshold,
+			boolean colorHistogramEnabled, PixelKernels kernels, ForkJoinPool pool, BufferPool bufferPool){
+
+		if(clusterCount < 1){
+			throw new IllegalArgumentException("cluster count must be positive: " + clusterCount);
+		}
+		if(sampleFraction <= 0 || sampleFraction > 1){
+			throw new IllegalArgumentException("sample fraction must be in (0, 1]: " + sampleFraction);
+		}
+
+		this.clusterCount = clusterCount;
+		this.loopCount = loopCount;
+		this.seed = seed;
+		this.sampleFraction = sampleFraction;
+		this.randomSampling = randomSampling;
+		this.convergenceThreshold = convergenceThreshold;
+		this.colorHistogramEnabled = colorHistogramEnabled;
+		this.kernels = kernels;
+		this.pool = pool;
+		this.bufferPool = bufferPool;
+	}
+
+	public int getClusterCount(){
+		return clusterCount;
+	}
+
+	//clusters the pixels with k-means starting from k-means++ centers and stores the cluster index of every pixel
+	//in labels. If the sample fraction is below 1 the centers are fitted on a sample and then every pixel is
+	//assigned once. Returns the segmenter holding the centers
+	public KMeansSegmenter segment(int pixels[], int labels[]){
+		return segment(pixels, labels, null);
+	}
+
+	//segments like segment(pixels, labels) and reports the iterations to the listener, which may be null
+	public KMeansSegmenter segment(int pixels[], int labels[], ProgressListener progressListener){
+
+		Random random = new Random(seed);
+
+		if(sampleFraction == 1){
+			return fitCenters(pixels, labels, random, progressListener);
+		}
+
+		//fit the centers on a sample, then assign every pixel once
+		int sampleSize = KMeansSegmenter.getSampleSize(pixels.length, sampleFraction);
+		int samplePixels[] = acquire(sampleSize);
+		int sampleLabels[] = acquire(sampleSize);
+		KMeansSegmenter.samplePixels(pixels, randomSampling ? random : null, samplePixels);
+
+		try{
+			KMeansSegmenter segmenter = fitCenters(samplePixels, sampleLabels, random, progressListener);
+			segmenter.assign(pixels, labels);
+			return segmenter;
+		}finally{
+			release(samplePixels);
+			release(sampleLabels);
+		}
+	}
+
+	//clusters a sample of an image and returns the segmenter holding the fitted centers
+	public KMeansSegmenter fitCenters(int samplePixels[]){
+
+		int sampleLabels[] = acquire(samplePixels.length);
+		KMeansSegmenter segmenter = fitCenters(samplePixels, sampleLabels, new Random(seed), null);
+		release(sampleLabels);
+		return segmenter;
+	}
+
+	//clusters a sample of an image starting from the given centers instead of a k-means++ initialization, so that
+	//the centers fitted on similar images, such as the frames of a video, stay close to each other
+	public KMeansSegmenter refineCenters(int samplePixels[], int centersRed[], int centersGreen[], int centersBlue[]){
+
+		int sampleLabels[] = acquire(samplePixels.length);
+		KMeansSegmenter segmenter = acquireSegmenter(centersRed.length);
+		segmenter.setCenters(centersRed, centersGreen, centersBlue);
+		segmenter.segment(samplePixels, sampleLabels);
+		release(sampleLabels);
+		return segmenter;
+	}
+
+	//assigns the pixels to the given centers without moving them and returns the segmenter holding the centers
+	public KMeansSegmenter assign(int pixels[], int labels[], int centersRed[], int centersGreen[], int centersBlue[]){
+
+		KMeansSegmenter segmenter = acquireSegmenter(centersRed.length);
+		segmenter.setCenters(centersRed, centersGreen, centersBlue);
+		segmenter.assign(pixels, labels);
+		return segmenter;
+	}
+
+	//hands a segmenter returned by this stage back, it must not be used afterwards
+	public void release(KMeansSegmenter segmenter){
+
+		if(segmenter.getClusterCount() != clusterCount){
+			return;
+		}
+		segmenter.setProgressListener(null);
+		synchronized(freeSegmenters){
+			activeSegmenters--;
+			if(freeSegmenters.size() < maxActiveSegmenters && (bufferPool == null || bufferPool.reserve(segmenter.getPixelArrayBytes()))){
+				freeSegmenters.push(segmenter);
+			}
+		}
+	}
+
+	private KMeansSegmenter fitCenters(int pixels[], int labels[], Random random, ProgressListener progressListener){
+
+		//k-means clustering algorithm. Reference: http://en.wikipedia.org/wiki/Image_segmentation#Clustering_methods
+		KMeansSegmenter segmenter = acquireSegmenter(clusterCount);
+		segmenter.setProgressListener(progressListener);
+		segmenter.setKMeansPlusPlusCenters(pixels, random);
+		segmenter.segment(pixels, labels);
+		return segmenter;
+	}
+
+	private KMeansSegmenter acquireSegmenter(int k){
+
+		if(k == clusterCount){
+			synchronized(freeSegmenters){
+				activeSegmenters++;
+				maxActiveSegmenters = Math.max(maxActiveSegmenters, activeSegmenters);
+				if(!freeSegmenters.isEmpty()){
+					KMeansSegmenter segmenter = freeSegmenters.pop();
+					if(bufferPool != null){
+						bufferPool.unreserve(segmenter.getPixelArrayBytes());
+					}
+					return segmenter;
+				}
+			}
+		}
+
+		KMeansSegmenter segmenter = new KMeansSegmenter(k, loopCount, pool);
+		segmenter.setConvergenceThreshold(convergenceThreshold);
+		segmenter.setColorHistogramEnabled(colorHistogramEnabled);
+		segmenter.setPixelKernels(kernels);
+		return segmenter;
+	}
+
+	private int[] acquire(int length){
+		return bufferPool == null ? new int[length] : bufferPool.acquire(length);
+	}
+
+	private void release(int buffer[]){
+
+		if(bufferPool != null){
+			bufferPool.release(buffer);
+		}
+	}
+
+}
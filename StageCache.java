@@ -0,0 +1,103 @@
+package source;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//least recently used cache of intermediate stage results, such as the labels of a segmentation or a median
+//filtered image. The keys identify the input image and the parameters of the stage and all stages before it.
+//Every entry is stored with its size in bytes, and the least recently used entries are evicted when the entries
+//would take more than maxBytes; a result larger than maxBytes is not cached at all. The cache is thread-safe.
+public class StageCache {
+
+	private final long maxBytes;
+	private long usedBytes;
+
+	//entries in the order they were used, the least recently used first
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+	//number of lookups that found and didn't find their entry
+	private long hitCount;
+	private long missCount;
+
+	private static class Entry{
+
+		final Object value;
+		final long bytes;
+
+		Entry(Object value, long bytes){
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	public StageCache(long maxBytes){
+
+		if(maxBytes < 0){
+			throw new IllegalArgumentException("cache size must not be negative: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	//returns the value stored for the key and marks it as used, or null if there is none
+	public synchronized Object get(Object key){
+
+		Entry entry = entries.get(key);
+		if(entry == null){
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.value;
+	}
+
+	//stores a value that takes the given number of bytes, evicting the least recently used entries as needed.
+	//The value must not be modified afterwards
+	public synchronized void put(Object key, Object value, long bytes){
+
+		Entry previousEntry = entries.remove(key);
+		if(previousEntry != null){
+			usedBytes -= previousEntry.bytes;
+		}
+		if(bytes > maxBytes){
+			return;
+		}
+
+		Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+		while(usedBytes + bytes > maxBytes && iterator.hasNext()){
+			usedBytes -= iterator.next().getValue().bytes;
+			iterator.remove();
+		}
+
+		entries.put(key, new Entry(value, bytes));
+		usedBytes += bytes;
+	}
+
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes(){
+		return usedBytes;
+	}
+
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	public synchronized long getHitCount(){
+		return hitCount;
+	}
+
+	public synchronized long getMissCount(){
+		return missCount;
+	}
+
+	//drops all entries
+	public synchronized void clear(){
+
+		entries.clear();
+		usedBytes = 0;
+	}
+
+}
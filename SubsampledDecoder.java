@@ -0,0 +1,74 @@
+package source;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+//decodes images at a reduced resolution. The ImageReader is asked for every stride-th pixel of every stride-th row
+//of the requested region, with the largest stride that keeps the decoded image at least as large as the target
+//size, and the decoded image is then area averaged down to the target size, which is less than twice smaller.
+//The reader only converts and stores a fraction of the pixels, and the area average smooths most of the aliasing
+//of the point sampling.
+public class SubsampledDecoder {
+
+	private SubsampledDecoder(){
+	}
+
+	//decodes the image so that its larger side is at most maxDimension
+	public static BufferedImage read(File file, int maxDimension) throws IOException{
+		return read(file, null, maxDimension);
+	}
+
+	//decodes the region of the image, or the whole image if region is null, so that its larger side is at most
+	//maxDimension
+	public static BufferedImage read(File file, Rectangle region, int maxDimension) throws IOException{
+
+		ImageInputStream inputStream = ImageIO.createImageInputStream(file);
+		if(inputStream == null){
+			throw new IOException("cannot open " + file);
+		}
+
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+			if(!readers.hasNext()){
+				throw new IOException("unsupported image format");
+			}
+
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(inputStream, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+
+				int regionWidth = reader.getWidth(0);
+				int regionHeight = reader.getHeight(0);
+				if(region != null){
+					param.setSourceRegion(region);
+					regionWidth = Math.min(region.width, regionWidth - region.x);
+					regionHeight = Math.min(region.height, regionHeight - region.y);
+				}
+
+				int stride = getStride(regionWidth, regionHeight, maxDimension);
+				param.setSourceSubsampling(stride, stride, 0, 0);
+
+				return AreaDownscaler.scaleToMaxDimension(reader.read(0, param), maxDimension);
+			}finally{
+				reader.dispose();
+			}
+		}finally{
+			inputStream.close();
+		}
+	}
+
+	//largest subsampling stride that leaves the larger side at least maxDimension
+	static int getStride(int imageWidth, int imageHeight, int maxDimension){
+		return Math.max(1, Math.max(imageWidth, imageHeight) / maxDimension);
+	}
+
+}
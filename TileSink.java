@@ -0,0 +1,11 @@
+package source;
+
+import java.io.IOException;
+
+//destination of an image that is written a region at a time
+public interface TileSink {
+
+	//writes the packed ARGB pixels of the given region, stored row after row
+	void writeRegion(int x, int y, int width, int height, int pixels[]) throws IOException;
+
+}
@@ -0,0 +1,18 @@
+package source;
+
+import java.io.IOException;
+
+//image that can be read a region at a time, so that it never has to be in memory as a whole
+public interface TileSource {
+
+	int getWidth();
+
+	int getHeight();
+
+	//reads the packed ARGB pixels of the given region into pixels, row after row
+	void readRegion(int x, int y, int width, int height, int pixels[]) throws IOException;
+
+	//returns the pixels of every stride-th column of every stride-th row
+	int[] readSubsampled(int stride) throws IOException;
+
+}
@@ -0,0 +1,181 @@
+package source;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FilenameUtils;
+
+//cartoonizes images that are too large to be held in memory with their intermediate images. The cluster centers
+//are fitted on a subsampled copy of the image, and then every tile is read with a halo of the pixels its median
+//filter and edge detection windows reach into, filtered on its own and written to the sink. Given the same
+//cluster centers the result is the same as Filters.cartoonizeImage(image, centersRed, centersGreen, centersBlue).
+//main writes raw pixel files and TIFF files a region at a time; the other output formats are encoded from a
+//BufferedImage of the whole result, so they are refused when that image would take more than half of the heap.
+public class TiledCartoonizer {
+
+	private final Filters filters;
+	private final int tileWidth;
+	private final int tileHeight;
+
+	//pixels the median filter window reaches beyond a pixel, plus one for the Sobel window of the edge detection
+	private final int halo = Math.max(Filters.MEDIAN_FILTER_WINDOW_WIDTH, Filters.MEDIAN_FILTER_WINDOW_HEIGHT) / 2 + 1;
+
+	public TiledCartoonizer(Filters filters, int tileWidth, int tileHeight){
+
+		if(tileWidth < 1 || tileHeight < 1){
+			throw new IllegalArgumentException("tile size must be positive: " + tileWidth + "x" + tileHeight);
+		}
+
+		this.filters = filters;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+	}
+
+	//fits the cluster centers on every sampleStride-th pixel of every sampleStride-th row
+	public KMeansSegmenter fitCenters(TileSource source, int sampleStride) throws IOException{
+
+		return filters.fitCenters(source.readSubsampled(sampleStride));
+	}
+
+	//cartoonizes the source tile by tile using the centers of the given segmenter
+	public void cartoonize(TileSource source, TileSink sink, KMeansSegmenter segmenter) throws IOException{
+		cartoonize(source, sink, segmenter, null);
+	}
+
+	public int getTileWidth(){
+		return tileWidth;
+	}
+
+	public int getTileHeight(){
+		return tileHeight;
+	}
+
+	//pixels around a tile that its result depends on
+	public int getHalo(){
+		return halo;
+	}
+
+	//cartoonizes only the tiles whose element of tiles is true, tile (x, y) has the index y * tileColumns + x. All
+	//tiles are cartoonized if tiles is null
+	public void cartoonize(TileSource source, TileSink sink, KMeansSegmenter segmenter, boolean tiles[]) throws IOException{
+
+		int imageWidth = source.getWidth();
+		int imageHeight = source.getHeight();
+
+		int bufferCapacity = Math.min(imageWidth, tileWidth + 2 * halo) * Math.min(imageHeight, tileHeight + 2 * halo);
+		int pixels[] = new int[bufferCapacity];
+		int labels[] = new int[bufferCapacity];
+		int tilePixels[] = new int[Math.min(imageWidth, tileWidth) * Math.min(imageHeight, tileHeight)];
+		int tileColumns = (imageWidth + tileWidth - 1) / tileWidth;
+
+		for(int tiley = 0; tiley < imageHeight; tiley += tileHeight){
+			for(int tilex = 0; tilex < imageWidth; tilex += tileWidth){
+
+				if(tiles != null && !tiles[(tiley / tileHeight) * tileColumns + tilex / tileWidth]){
+					continue;
+				}
+
+				int currentTileWidth = Math.min(tileWidth, imageWidth - tilex);
+				int currentTileHeight = Math.min(tileHeight, imageHeight - tiley);
+
+				//region of the tile and its halo, clipped to the image
+				int bufferx = Math.max(0, tilex - halo);
+				int buffery = Math.max(0, tiley - halo);
+				int bufferWidth = Math.min(imageWidth, tilex + currentTileWidth + halo) - bufferx;
+				int bufferHeight = Math.min(imageHeight, tiley + currentTileHeight + halo) - buffery;
+
+				int bufferPixels[] = bufferWidth * bufferHeight == bufferCapacity ? pixels : new int[bufferWidth * bufferHeight];
+				int bufferLabels[] = bufferWidth * bufferHeight == bufferCapacity ? labels : new int[bufferWidth * bufferHeight];
+				source.readRegion(bufferx, buffery, bufferWidth, bufferHeight, bufferPixels);
+				segmenter.assign(bufferPixels, bufferLabels);
+
+				//pixels within half a median window of the halo's outer border are black, the same as at the image
+				//border, but the halo is wide enough that the tile and the Sobel window around it aren't affected
+				int resultPixels[] = filters.filterSegmentedPixels(bufferLabels, bufferWidth, bufferHeight, segmenter);
+
+				//copy the tile out of the filtered buffer
+				int offsetx = tilex - bufferx;
+				int offsety = tiley - buffery;
+				for(int countery = 0; countery < currentTileHeight; countery++){
+					System.arraycopy(resultPixels, (offsety + countery) * bufferWidth + offsetx, tilePixels, countery * currentTileWidth, currentTileWidth);
+				}
+				sink.writeRegion(tilex, tiley, currentTileWidth, currentTileHeight, tilePixels);
+			}
+		}
+	}
+
+	//cartoonizes an image file tile by tile and writes the result to another image file. Raw pixel files are read
+	//and written through their memory mapping, so neither the input nor the output image has to fit in the heap.
+	//TIFF files are written a strip at a time, other output formats are refused when the image doesn't fit
+	public static void main(String[] args) throws IOException{
+
+		if(args.length < 2){
+			System.err.println("usage: TiledCartoonizer <input file> <output file> [tile size] [sample stride]");
+			System.exit(2);
+		}
+
+		File inputFile = new File(args[0]);
+		File outputFile = new File(args[1]);
+		int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+		int sampleStride = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+		TileSource source;
+		int imageType;
+		if(FilenameUtils.getExtension(inputFile.getName()).equals(RawPixelFile.EXTENSION)){
+			RawPixelFile rawSource = RawPixelFile.open(inputFile, false);
+			source = rawSource;
+			imageType = rawSource.getImageType();
+		}else{
+			ImageReaderTileSource readerSource = new ImageReaderTileSource(inputFile);
+			source = readerSource;
+			imageType = readerSource.getImageType();
+		}
+
+		try{
+			String outputFormat = FilenameUtils.getExtension(outputFile.getName());
+			boolean regionOutput = !outputFormat.equals(RawPixelFile.EXTENSION) && ImageWriterTileSink.isSupported(outputFormat);
+			if(regionOutput){
+				//the strips have to replace whole tiles of the file
+				int alignment = ImageWriterTileSink.REGION_ALIGNMENT;
+				tileSize = (tileSize + alignment - 1) / alignment * alignment;
+			}
+
+			//full width strips, the input formats decode from the top for every region
+			TiledCartoonizer cartoonizer = new TiledCartoonizer(new Filters(), source.getWidth(), tileSize);
+			KMeansSegmenter segmenter = cartoonizer.fitCenters(source, sampleStride);
+
+			if(outputFormat.equals(RawPixelFile.EXTENSION)){
+				RawPixelFile sink = RawPixelFile.create(outputFile, source.getWidth(), source.getHeight(), imageType);
+				try{
+					cartoonizer.cartoonize(source, sink, segmenter);
+				}finally{
+					sink.close();
+				}
+			}else if(regionOutput){
+				ImageWriterTileSink sink = new ImageWriterTileSink(outputFile, outputFormat, source.getWidth(), source.getHeight(), source.getWidth(), tileSize, imageType);
+				try{
+					cartoonizer.cartoonize(source, sink, segmenter);
+				}finally{
+					sink.close();
+				}
+			}else{
+				//the other formats are written from an image that holds the whole output
+				long imageBytes = (long)source.getWidth() * source.getHeight() * 4;
+				if(imageBytes > Runtime.getRuntime().maxMemory() / 2){
+					System.err.println("output image of " + source.getWidth() + "x" + source.getHeight() + " pixels doesn't fit in the heap as " + outputFormat + ", write it as ." + RawPixelFile.EXTENSION + " or .tif");
+					System.exit(1);
+				}
+				BufferedImageTiles sink = new BufferedImageTiles(new BufferedImage(source.getWidth(), source.getHeight(), imageType));
+				cartoonizer.cartoonize(source, sink, segmenter);
+				ImageIO.write(sink.getImage(), outputFormat, outputFile);
+			}
+		}finally{
+			((Closeable)source).close();
+		}
+	}
+
+}
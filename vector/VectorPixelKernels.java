@@ -0,0 +1,95 @@
+package source;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+//PixelKernels on the incubating vector API. Every loop processes as many pixels at once as the preferred vector
+//size of the CPU holds and leaves the remainder to the scalar loop. The arithmetic is the same as in the scalar
+//kernels, so are the results. The greyscale conversion stays scalar: it needs the double arithmetic of the scalar
+//loop to give the same values, and JDK 17 doesn't compile int to double vector conversions into vector
+//instructions. Shifts are by vectors rather than by scalars for the same reason.
+//The class is kept out of the default sources, which compile without the incubator module. It is compiled on its
+//own against the other classes and only needs the module where it is used:
+//javac -d classes -cp commons-io-2.4.jar *.java
+//javac --add-modules jdk.incubator.vector -d classes -cp classes vector/*.java
+//java --add-modules jdk.incubator.vector -cp classes:commons-io-2.4.jar source.Main
+public class VectorPixelKernels extends PixelKernels {
+
+	private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+	public boolean isVectorized(){
+		return true;
+	}
+
+	public void detectEdges(int greyscale[], int aboveOffset, int middleOffset, int belowOffset, int source[], int sourceOffset,
+			int result[], int resultOffset, int width, int threshold){
+
+		int squaredThreshold = getSquaredThreshold(threshold);
+
+		int lanes = INT_SPECIES.length();
+		int counterx = 1;
+		for(; counterx <= width - 1 - lanes; counterx += lanes){
+
+			int above = aboveOffset + counterx;
+			int middle = middleOffset + counterx;
+			int below = belowOffset + counterx;
+			IntVector aboveLeft = IntVector.fromArray(INT_SPECIES, greyscale, above - 1);
+			IntVector aboveCenter = IntVector.fromArray(INT_SPECIES, greyscale, above);
+			IntVector aboveRight = IntVector.fromArray(INT_SPECIES, greyscale, above + 1);
+			IntVector middleLeft = IntVector.fromArray(INT_SPECIES, greyscale, middle - 1);
+			IntVector middleRight = IntVector.fromArray(INT_SPECIES, greyscale, middle + 1);
+			IntVector belowLeft = IntVector.fromArray(INT_SPECIES, greyscale, below - 1);
+			IntVector belowCenter = IntVector.fromArray(INT_SPECIES, greyscale, below);
+			IntVector belowRight = IntVector.fromArray(INT_SPECIES, greyscale, below + 1);
+
+			IntVector sumX = belowLeft.add(belowCenter.add(belowCenter)).add(belowRight).sub(aboveLeft.add(aboveCenter.add(aboveCenter)).add(aboveRight));
+			IntVector sumY = aboveLeft.add(middleLeft.add(middleLeft)).add(belowLeft).sub(aboveRight.add(middleRight.add(middleRight)).add(belowRight));
+			IntVector squaredMagnitude = sumX.mul(sumX).add(sumY.mul(sumY));
+
+			VectorMask<Integer> edge = squaredMagnitude.compare(VectorOperators.GE, squaredThreshold);
+			IntVector.fromArray(INT_SPECIES, source, sourceOffset + counterx).blend(0xff000000, edge).intoArray(result, resultOffset + counterx);
+		}
+
+		//the scalar kernel finishes the row, shifted so that its first pixel is counterx
+		int done = counterx - 1;
+		super.detectEdges(greyscale, aboveOffset + done, middleOffset + done, belowOffset + done, source, sourceOffset + done, result, resultOffset + done,
+				width - done, threshold);
+	}
+
+	public void nearestCenters(int colors[], int offset, int count, int centersRed[], int centersGreen[], int centersBlue[], int nearest[]){
+
+		int k = centersRed.length;
+		int lanes = INT_SPECIES.length();
+		IntVector shift16 = IntVector.broadcast(INT_SPECIES, 16);
+		IntVector shift8 = IntVector.broadcast(INT_SPECIES, 8);
+		int n = offset;
+		for(; n <= offset + count - lanes; n += lanes){
+
+			IntVector color = IntVector.fromArray(INT_SPECIES, colors, n);
+			IntVector red = color.lanewise(VectorOperators.ASHR, shift16).and(0xff);
+			IntVector green = color.lanewise(VectorOperators.ASHR, shift8).and(0xff);
+			IntVector blue = color.and(0xff);
+
+			IntVector smallestDistance = IntVector.broadcast(INT_SPECIES, Integer.MAX_VALUE);
+			IntVector nearestCenterIndex = IntVector.zero(INT_SPECIES);
+			for(int i = 0; i < k; i++){
+
+				IntVector differenceRed = red.sub(centersRed[i]);
+				IntVector differenceGreen = green.sub(centersGreen[i]);
+				IntVector differenceBlue = blue.sub(centersBlue[i]);
+				IntVector currentDistance = differenceRed.mul(differenceRed).add(differenceGreen.mul(differenceGreen)).add(differenceBlue.mul(differenceBlue));
+
+				//strictly smaller, so on ties the lowest index stays
+				VectorMask<Integer> nearer = currentDistance.compare(VectorOperators.LT, smallestDistance);
+				smallestDistance = smallestDistance.blend(currentDistance, nearer);
+				nearestCenterIndex = nearestCenterIndex.blend(i, nearer);
+			}
+			nearestCenterIndex.intoArray(nearest, n);
+		}
+
+		super.nearestCenters(colors, n, offset + count - n, centersRed, centersGreen, centersBlue, nearest);
+	}
+
+}